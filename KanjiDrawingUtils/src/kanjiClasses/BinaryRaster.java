@@ -0,0 +1,102 @@
+package kanjiClasses;
+/**
+ * BinaryRaster
+ *
+ * A black and white image packed 64 pixels to a long
+ *
+ * Pixel (x, y) is bit (y * width + x) of the words array, and a set bit is ink.
+ * A 400x400 kanji takes 2500 longs (20 KB).
+ *
+ */
+
+import java.util.Arrays;
+
+public class BinaryRaster {
+
+	public final int width;
+	public final int height;
+	public final long[] words;
+
+	public BinaryRaster(int width, int height){
+		this.width = width;
+		this.height = height;
+		this.words = new long[(width * height + 63) >>> 6];
+	}
+
+	public boolean get(int x, int y){
+		int bit = y * width + x;
+		return (words[bit >>> 6] & (1L << bit)) != 0;
+	}
+
+	public void set(int x, int y){
+		int bit = y * width + x;
+		words[bit >>> 6] |= 1L << bit;
+	}
+
+	public void clear(){
+		Arrays.fill(words, 0L);
+	}
+
+	/**
+	 * inkCount
+	 *
+	 * @return int - the number of ink pixels
+	 */
+	public int inkCount(){
+		int count = 0;
+		for (long word : words){
+			count += Long.bitCount(word);
+		}
+		return count;
+	}
+
+	/**
+	 * hamming
+	 *
+	 * @param other - a raster of the same size
+	 * @return int - the number of pixels that are ink in one raster and paper in the other
+	 */
+	public int hamming(BinaryRaster other){
+		int sum = 0;
+		for (int i = 0; i < words.length; i++){
+			sum += Long.bitCount(words[i] ^ other.words[i]);
+		}
+		return sum;
+	}
+
+	/**
+	 * toPixels
+	 *
+	 * @return int[x][y] - 1 for ink and 0 for paper, in the same layout as ImageProcessingUtils.bufToPixels
+	 */
+	public int[][] toPixels(){
+		int[][] pixels = new int[width][height];
+		for (int y = 0; y < height; y++){
+			for (int x = 0; x < width; x++){
+				if (get(x, y)){
+					pixels[x][y] = 1;
+				}
+			}
+		}
+		return pixels;
+	}
+
+	/**
+	 * fromPixels
+	 *
+	 * @param pixels - int[x][y], where any non-zero value is ink
+	 * @return BinaryRaster
+	 */
+	public static BinaryRaster fromPixels(int[][] pixels){
+		BinaryRaster raster = new BinaryRaster(pixels.length, pixels.length > 0 ? pixels[0].length : 0);
+		for (int x = 0; x < raster.width; x++){
+			for (int y = 0; y < raster.height; y++){
+				if (pixels[x][y] != 0){
+					raster.set(x, y);
+				}
+			}
+		}
+		return raster;
+	}
+
+}
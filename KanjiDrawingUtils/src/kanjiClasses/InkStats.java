@@ -0,0 +1,91 @@
+package kanjiClasses;
+/**
+ * InkStats
+ *
+ * How much ink a raster has and where, for bounding Hamming distances without comparing pixels
+ *
+ * Every pixel counted in one raster but not the other is a mismatch, so for two rasters of the
+ * same size
+ *
+ * |ink(a) - ink(b)| <= sum over rows |rows(a) - rows(b)| <= hamming(a, b)
+ *
+ * and the same holds for columns. A search can skip any candidate whose bound is already worse
+ * than its k-th best distance.
+ *
+ */
+
+public class InkStats {
+
+	public final int ink;
+	// the ink's bounding box, inclusive (-1 for a blank raster)
+	public final int left;
+	public final int top;
+	public final int right;
+	public final int bottom;
+	// ink per row and per column
+	public final int[] rows;
+	public final int[] columns;
+
+	/**
+	 * InkStats constructor
+	 *
+	 * @param raster - the raster to measure, walking only its set bits
+	 */
+	public InkStats(BinaryRaster raster){
+		rows = new int[raster.height];
+		columns = new int[raster.width];
+		int count = 0;
+		int minX = Integer.MAX_VALUE;
+		int minY = Integer.MAX_VALUE;
+		int maxX = -1;
+		int maxY = -1;
+		for (int w = 0; w < raster.words.length; w++){
+			long word = raster.words[w];
+			while (word != 0){
+				int bit = (w << 6) + Long.numberOfTrailingZeros(word);
+				word &= word - 1;
+				int x = bit % raster.width;
+				int y = bit / raster.width;
+				rows[y]++;
+				columns[x]++;
+				count++;
+				minX = Math.min(minX, x);
+				maxX = Math.max(maxX, x);
+				minY = Math.min(minY, y);
+				maxY = Math.max(maxY, y);
+			}
+		}
+		ink = count;
+		left = count == 0 ? -1 : minX;
+		top = count == 0 ? -1 : minY;
+		right = maxX;
+		bottom = maxY;
+	}
+
+	/**
+	 * lowerBound
+	 *
+	 * @param other - the stats of a raster of the same size
+	 * @param limit - the distance that matters; once the bound passes it no tighter bound is computed
+	 * @return int - a distance the Hamming distance of the two rasters is at least
+	 */
+	public int lowerBound(InkStats other, int limit){
+		int bound = Math.abs(ink - other.ink);
+		if (bound > limit){
+			return bound;
+		}
+		int rowBound = 0;
+		for (int i = 0; i < rows.length; i++){
+			rowBound += Math.abs(rows[i] - other.rows[i]);
+		}
+		if (rowBound > limit){
+			return rowBound;
+		}
+		int columnBound = 0;
+		for (int i = 0; i < columns.length; i++){
+			columnBound += Math.abs(columns[i] - other.columns[i]);
+		}
+		return Math.max(bound, Math.max(rowBound, columnBound));
+	}
+
+}
@@ -0,0 +1,239 @@
+package kanjiClasses;
+/**
+ * PixelAccumulator
+ *
+ * The running mean and variance of each pixel over a stream of samples
+ *
+ * Each sample updates the per pixel mean and sum of squared deviations (Welford's method), so a
+ * class model is built in one pass without holding its samples. Two accumulators of the same
+ * size can be merged (Chan et al.), so a class can be split across threads, or extended as new
+ * samples arrive, and give the same statistics as accumulating everything in one.
+ *
+ * Pixels are 1 for ink and 0 for paper. The values are floats, which keeps two 400x400
+ * accumulators at 1.25 MB.
+ *
+ * A sparse sample only touches its ink: its runs add to a per pixel ink count, and the counted
+ * samples are folded into the mean and squares (a batch of 0/1 samples with c ink out of n has
+ * mean c/n and squares c(n-c)/n) the next time the statistics are read. The counts take another
+ * int per pixel, once a sparse sample is added.
+ *
+ * Usage:
+ *
+ * PixelAccumulator accumulator = new PixelAccumulator(400, 400);
+ * accumulator.add(kanji.toRaster());
+ * accumulator.add(kanji.sparse);
+ * accumulator.merge(other);
+ * kanjiModel.buildStatistics(accumulator);
+ *
+ * @note an accumulator is not thread safe - give each thread its own and merge them
+ */
+
+public class PixelAccumulator {
+
+	public final int width;
+	public final int height;
+	private long count = 0;
+	// per pixel, row by row (y * width + x)
+	private final float[] mean;
+	private final float[] squares;
+	// sparse samples not yet folded into mean and squares, and their ink per pixel (see fold)
+	private long counted = 0;
+	private int[] inked;
+
+	/**
+	 * PixelAccumulator constructor
+	 *
+	 * @param width - the width of the samples
+	 * @param height - the height of the samples
+	 */
+	public PixelAccumulator(int width, int height){
+		this.width = width;
+		this.height = height;
+		mean = new float[width * height];
+		squares = new float[width * height];
+	}
+
+	/**
+	 * add
+	 *
+	 * @summary Updates every pixel's statistics with one sample
+	 *
+	 * @param raster - a sample of the same size
+	 *
+	 * @pseudocode
+	 * 1. Count the sample
+	 * 2. For each pixel, move the mean toward the pixel by 1/N of the difference
+	 * 3. Add the difference times the pixel's difference from the new mean to the squares
+	 */
+	public void add(BinaryRaster raster){
+		if (raster.width != width || raster.height != height){
+			throw new IllegalArgumentException("expected a " + width + "x" + height + " sample, not " + raster.width + "x" + raster.height);
+		}
+		//Step 1. count
+		count++;
+		float inverse = 1f / count;
+
+		for (int i = 0; i < mean.length; i++){
+			float x = (raster.words[i >>> 6] >>> i) & 1L;
+			//Step 2. mean
+			float delta = x - mean[i];
+			mean[i] += delta * inverse;
+			//Step 3. squares
+			squares[i] += delta * (x - mean[i]);
+		}
+	}
+
+	/**
+	 * add
+	 *
+	 * @summary Adds one sparse sample, counting the pixels of its runs without expanding it
+	 *
+	 * @param raster - a sample of the same size
+	 *
+	 * @pseudocode
+	 * 1. Count the sample
+	 * 2. Count each pixel of its runs as ink; every other pixel is paper
+	 *
+	 * @note costs as much as the sample has ink, not as much as it has pixels
+	 */
+	public void add(SparseRaster raster){
+		if (raster.width != width || raster.height != height){
+			throw new IllegalArgumentException("expected a " + width + "x" + height + " sample, not " + raster.width + "x" + raster.height);
+		}
+		if (inked == null){
+			inked = new int[mean.length];
+		}
+		//Step 1. count
+		counted++;
+
+		//Step 2. scatter
+		for (int y = 0; y < height; y++){
+			int base = y * width;
+			for (int r = 2 * raster.rows[y]; r < 2 * raster.rows[y + 1]; r += 2){
+				for (int i = base + raster.runs[r]; i < base + raster.runs[r + 1]; i++){
+					inked[i]++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * fold
+	 *
+	 * @summary Moves the counted sparse samples into the mean and squares
+	 *
+	 * @pseudocode
+	 * 1. Take each pixel's counted samples as a batch with mean c/n and squares c(n-c)/n
+	 * 2. Merge the batch as merge does, and clear the counts
+	 */
+	private void fold(){
+		if (counted == 0){
+			return;
+		}
+		long total = count + counted;
+		float share = (float) counted / total;
+		float weight = (float) count * counted / total;
+		float inverse = 1f / counted;
+		for (int i = 0; i < mean.length; i++){
+			//Step 1. batch
+			float c = inked[i];
+			float batchMean = c * inverse;
+			float batchSquares = c - c * batchMean;
+			//Step 2. merge
+			float delta = batchMean - mean[i];
+			mean[i] += delta * share;
+			squares[i] += batchSquares + delta * delta * weight;
+			inked[i] = 0;
+		}
+		count = total;
+		counted = 0;
+	}
+
+	/**
+	 * merge
+	 *
+	 * @summary Adds another accumulator's samples to this one
+	 *
+	 * @param other - an accumulator of the same size, whose statistics are left unchanged (its sparse samples are folded)
+	 *
+	 * @pseudocode
+	 * 1. Weigh the difference of the means by the other's share of the samples
+	 * 2. Add the squares, plus the squared difference of the means times na * nb / n
+	 */
+	public void merge(PixelAccumulator other){
+		if (other.width != width || other.height != height){
+			throw new IllegalArgumentException("expected a " + width + "x" + height + " accumulator, not " + other.width + "x" + other.height);
+		}
+		fold();
+		other.fold();
+		if (other.count == 0){
+			return;
+		}
+		long total = count + other.count;
+		float share = (float) other.count / total;
+		float weight = (float) count * other.count / total;
+		for (int i = 0; i < mean.length; i++){
+			float delta = other.mean[i] - mean[i];
+			//Step 1. mean
+			mean[i] += delta * share;
+			//Step 2. squares
+			squares[i] += other.squares[i] + delta * delta * weight;
+		}
+		count = total;
+	}
+
+	/**
+	 * count
+	 *
+	 * @return long - the number of samples added, including merged ones
+	 */
+	public long count(){
+		return count + counted;
+	}
+
+	/**
+	 * mean
+	 *
+	 * @return double - the fraction of samples with ink at (x, y)
+	 */
+	public double mean(int x, int y){
+		fold();
+		return mean[y * width + x];
+	}
+
+	/**
+	 * means
+	 *
+	 * @return float[] - a copy of every pixel's mean, row by row
+	 */
+	public float[] means(){
+		fold();
+		return mean.clone();
+	}
+
+	/**
+	 * standardDeviation
+	 *
+	 * @return double - the sample standard deviation at (x, y), sqrt(sum((x - xbar)^2) / (N - 1)); NaN for a single sample
+	 */
+	public double standardDeviation(int x, int y){
+		fold();
+		//rounding can leave a tiny negative sum where every sample agrees
+		return Math.sqrt(Math.max(0f, squares[y * width + x]) / (count - 1));
+	}
+
+	/**
+	 * standardDeviations
+	 *
+	 * @return float[] - every pixel's standard deviation, row by row, as standardDeviation(x, y)
+	 */
+	public float[] standardDeviations(){
+		fold();
+		float[] deviations = new float[squares.length];
+		for (int i = 0; i < squares.length; i++){
+			deviations[i] = (float) Math.sqrt(Math.max(0f, squares[i]) / (count - 1));
+		}
+		return deviations;
+	}
+
+}
@@ -12,17 +12,36 @@ import java.awt.image.DataBuffer;
 import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import javax.imageio.ImageIO;
 
+import utils.CorpusLoader;
+import utils.GntReader;
 import utils.ImageProcessingUtils;
+import utils.RasterArchive;
+import utils.RasterCache;
+import utils.RasterDecoder;
+import utils.StrokeRasterizer;
 
 
 public class PixelKanji extends Kanji{
 
 	public int tokens = 0;
-	public double[][] averagePixels;
-	public double[][] standardDeviation;
+	//the class's statistics as flat arrays, built by buildStatistics and scored against rasters
+	public PixelModel model;
+	//packed pixels drawn from strokes or pinned for a training set (see pin); other images are kept in the RasterCache
+	public BinaryRaster raster;
+	//the ink runs, kept instead of the raster for a sparse training set (see pinSparse)
+	public SparseRaster sparse;
+	//images decoded at a time by pinSparse
+	static final int PIN_BATCH = 256;
+	//ink counts at lower resolutions, built on first use (see toPyramid)
+	public RasterPyramid pyramid;
+	//ink count, bounding box and histograms, built on first use (see toInkStats)
+	public InkStats inkStats;
 
 	public PixelKanji(String location){
 		source = location;
@@ -33,36 +52,16 @@ public class PixelKanji extends Kanji{
 		label = l;
 	}
 
-	public String toString(){
-
-		return "label: " + label + " tokens: " + tokens;
+	public PixelKanji(Character l, BinaryRaster r){
+		label = l;
+		raster = r;
+		width = r.width;
+		height = r.height;
 	}
 
-	/**
-	 * 
-	 * BuildAveragePixels
-	 * 
-	 * Averages an array of pixels. Can generate an average image as well
-	 * 
-	 * @param allPixels
-	 */
-	public void buildAveragePixels(int[][][] allPixels){
-
-		averagePixels = new double[400][400];
-
-		//xbar = sum(x) / N
-		for (int i = 0; i < tokens; i++){
-			if (allPixels[i] != null){
-				for (int row = 0; row < height; row++) {
-					for (int col = 0; col < width; col++) {
-						averagePixels[col][row] = ((double)(averagePixels[col][row]*i) + (double)allPixels[i][col][row]) / (double)(i+1);
-					}
-				}
-			}
-		}
-		
-//		renderAverage();
+	public String toString(){
 
+		return "label: " + label + " tokens: " + tokens;
 	}
 
 	/**
@@ -70,7 +69,7 @@ public class PixelKanji extends Kanji{
 	 * 
 	 * Creates an image from an array of pixels
 	 * 
-	 * @note To be used by the method buildAveragePixels
+	 * @note To be used after the method buildStatistics is called
 	 */
 	public void renderAverage(){
 
@@ -87,7 +86,7 @@ public class PixelKanji extends Kanji{
 				//compensate for buffer size by scaling the pixels
 
 				for (int j = 0; j < scale; j++){
-					pixels[i++] = (int) (averagePixels[col][row]*255);
+					pixels[i++] = (int) (model.mean(col, row)*255);
 				}
 			}
 		}
@@ -98,100 +97,265 @@ public class PixelKanji extends Kanji{
 
 	}
 	/**
-	 * buildStandardDeviation
+	 * buildStatistics
 	 * 
-	 * gets an array of standard deviations per pixel for an array of pixels.
+	 * gets the class model of each pixel from a running accumulator
 	 * 
-	 * @param allPixels
+	 * @param accumulator - the class's samples, added one at a time or merged from partial accumulators
+	 */
+	public void buildStatistics(PixelAccumulator accumulator){
+		tokens = (int) accumulator.count();
+		width = accumulator.width;
+		height = accumulator.height;
+		model = new PixelModel(accumulator);
+	}
+
+	/**
+	 * buildTemplate
 	 * 
-	 * @note To be used after the method buildAveragePixels is called
+	 * thresholds the average into the class's template raster, for chamfer matching
+	 * 
+	 * @return BinaryRaster - the pixels inked in at least half of the tokens, also kept as this kanji's raster
+	 * 
+	 * @note To be used after the method buildStatistics is called
 	 */
-	public void buildStandardDeviation(int[][][] allPixels){
-
-		standardDeviation = new double[400][400];
-
-		//stdev = sqrt ( sum((x - xbar)^2)/N-1)
-		for (int i = 0; i < tokens; i++){
-			if (allPixels[i] != null){
-				for (int row = 0; row < height; row++) {
-					for (int col = 0; col < width; col++) {
-						//summing squares
-						standardDeviation[row][col] += ((allPixels[i][row][col] - averagePixels[row][col])*(allPixels[i][row][col] - averagePixels[row][col]));
-					}
-				}
-				i++;
+	public BinaryRaster buildTemplate(){
+		BinaryRaster template = model.toTemplate();
+		raster = template;
+		pyramid = null;
+		inkStats = null;
+		return template;
+	}
+
+	/**
+	 * toPixels
+	 * turns an image into a pixel array
+	 *  
+	 * @param String fileType - the methods for rendering pixels for .png and .jpg files are different
+	 * @return in[][] pixels
+	 */
+	public int[][] toPixels(String fileType){
+		
+		BinaryRaster pixels = toRaster();
+		if (pixels != null){
+			return fileType.equals(".jpg") ? rasterToPixelsFromData(pixels) : pixels.toPixels();
+		}
+		
+		if (fileType == ".png"){
+			return toPixels();
+		}
+		
+		if (fileType == ".jpg"){
+			return toPixelsFromData();
+		}
+		
+		return null;
+		
+	}
+	/**
+	 * toPixels
+	 * 
+	 * @return int[][] pixels from the raster (see toRaster), falling back to the source image if it cannot be binarized
+	 */
+	@Override
+	public int[][] toPixels(){
+		BinaryRaster pixels = toRaster();
+		if (pixels != null){
+			return pixels.toPixels();
+		}
+		return super.toPixels();
+	}
+
+	/**
+	 * toRaster
+	 * gets the packed pixels, the canonical form of a PixelKanji
+	 * 
+	 * @return BinaryRaster - the raster, or null if there is none and the source image cannot be read
+	 * 
+	 * @note images are decoded through the shared RasterCache, so each is read at most once while it stays cached;
+	 * ink is decided by the image's file type as in RasterDecoder.binarize
+	 * @note a sparse kanji expands its runs into a new raster on every call
+	 */
+	public BinaryRaster toRaster(){
+		if (raster != null){
+			return raster;
+		}
+		if (sparse != null){
+			return sparse.toRaster();
+		}
+		if (source == null){
+			return null;
+		}
+		return RasterCache.shared().get(source);
+	}
+
+	/**
+	 * toPyramid
+	 * gets the kanji's coarse ink counts for a coarse-to-fine search
+	 * 
+	 * @return RasterPyramid - built from toRaster once and kept, or null if there are no pixels
+	 */
+	public RasterPyramid toPyramid(){
+		if (pyramid == null){
+			BinaryRaster pixels = toRaster();
+			if (pixels != null){
+				pyramid = new RasterPyramid(pixels);
 			}
 		}
-		for (int row = 0; row < height; row++) {
-			for (int col = 0; col < width; col++) {
-				// dividing and sqrt
-				standardDeviation[row][col] = Math.sqrt(standardDeviation[row][col]/(tokens - 1));
+		return pyramid;
+	}
+
+	/**
+	 * toInkStats
+	 * gets the kanji's ink statistics for bounding its distances
+	 * 
+	 * @return InkStats - built from toRaster once and kept, or null if there are no pixels
+	 */
+	public InkStats toInkStats(){
+		if (inkStats == null){
+			BinaryRaster pixels = toRaster();
+			if (pixels != null){
+				inkStats = new InkStats(pixels);
 			}
 		}
+		return inkStats;
+	}
 
+	/**
+	 * rasterToPixelsFromData
+	 * lays the raster out like toPixelsFromData: [row][col], with 0 for ink and 1 for paper
+	 *  
+	 * @return int[][] pixels
+	 */
+	private static int[][] rasterToPixelsFromData(BinaryRaster raster){
+		int[][] pixels = new int[raster.height][raster.width];
+		for (int row = 0; row < raster.height; row++){
+			for (int col = 0; col < raster.width; col++){
+				pixels[row][col] = raster.get(col, row) ? 0 : 1;
+			}
+		}
+		return pixels;
 	}
+
 	/**
-	 * getZScore
-	 * Computes a zScore for a set of pixels
+	 * getKanjis
+	 * Static method to get every kanji of a pixel dataset
 	 * 
-	 * @param pixels the pixels to compute
-	 * @return double zscore the score
+	 * @param source - a folder of images, a folder of .pot or .gnt files, a .gnt file, or a RasterArchive file
+	 * @param fileType - ".jpg", ".png", ".pot" or ".gnt"
+	 * @return ArrayList<PixelKanji> - images are read when their pixels are needed; archives, .pot and .gnt files are already rasterized
 	 */
-	public double getZScore(int[][] pixels){
-		double z = 0;
-		for (int row = 0; row < height; row++) {
-			for (int col = 0; col < width; col++) {
-				z+= Math.abs((double) pixels[row][col] - (double) averagePixels[row][col])/((double) standardDeviation[row][col] + 1);
+	public static ArrayList<PixelKanji> getKanjis(File source, String fileType){
+		ArrayList<PixelKanji> kanjis = new ArrayList<PixelKanji>();
+
+		if (source.isFile() && source.getName().endsWith(RasterArchive.EXTENSION)){
+			try {
+				return RasterArchive.open(source).toPixelKanjis();
+			} catch (IOException e) {e.printStackTrace();}
+			return kanjis;
+		}
+
+		if (fileType.equals(GntReader.EXTENSION)){
+			List<File> gnts = source.isFile() ? Collections.singletonList(source) : CorpusLoader.listFiles(source, fileType);
+			for (File fileEntry : gnts){
+				kanjis.addAll(new GntReader(fileEntry).toPixelKanjis());
+			}
+			return kanjis;
+		}
+
+		if (fileType.equals(".pot")){
+			StrokeRasterizer rasterizer = new StrokeRasterizer();
+			for (File fileEntry : CorpusLoader.listFiles(source, fileType)){
+				//the file's points are packed into a PointStore and drawn from there, then dropped
+				try {
+					kanjis.addAll(rasterizer.toPixelKanjis(PointStore.fromPot(fileEntry, false)));
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
 			}
+			return kanjis;
+		}
+
+		for (File fileEntry : CorpusLoader.listFiles(source, fileType)){
+			kanjis.add(new PixelKanji(fileEntry.getAbsolutePath()));
 		}
-		return z;
+		return kanjis;
 	}
 
 	/**
-	 * distance
-	 * @summary Computes a score based on how different one kanji is from this kanji
+	 * pin
+	 * decodes the pixels of a training set onto its kanjis, so scanning the set for every query reads no image twice
 	 * 
-	 * @param otherKanjiPixels - The pixels of the Kanji to Compare to
-	 * @return sum - the difference score
+	 * @param kanjis - kanjis read from image files or archives; kanjis that already have a raster or runs are skipped
 	 * 
 	 * @pseudocode
-	 * 1. loop through each kanji's pixel array
-	 * 2. sum the difference between pixels
+	 * 1. Copy the rasters of archive entries out of their mapping
+	 * 2. Decode the images in parallel
+	 * 3. If some image cannot be read, decode them one at a time and leave the unreadable ones without a raster
 	 * 
+	 * @note pinned rasters stay for as long as their kanjis do - about 20 KB each at 400x400 - and bypass the
+	 * RasterCache, which only sees the kanjis that are not pinned, such as the queries
 	 */
-	public int distance(int[][] otherKanjiPixels){
+	public static void pin(List<PixelKanji> kanjis){
+		ArrayList<PixelKanji> images = new ArrayList<PixelKanji>();
+		ArrayList<File> files = new ArrayList<File>();
+		for (PixelKanji k : kanjis){
+			if (k.raster != null || k.sparse != null || k.source == null){
+				continue;
+			}
+			//Step 1. archive entries
+			if (RasterArchive.isEntry(k.source)){
+				k.raster = k.toRaster();
+			}else{
+				images.add(k);
+				files.add(new File(k.source));
+			}
+		}
 
-		double sum = 0;
-		
-		for (int row = 0; row < averagePixels.length; row++) {
-			for (int col = 0; col < averagePixels[0].length; col++) {	
-				//sum the difference between each pixel
-				sum += Math.abs((double) averagePixels[row][col] - (double)otherKanjiPixels[row][col]);
+		//Step 2. images
+		try {
+			List<BinaryRaster> rasters = RasterDecoder.shared().readAll(files, null);
+			for (int i = 0; i < images.size(); i++){
+				images.get(i).raster = rasters.get(i);
 			}
+			return;
+		} catch (IOException e) {
+			System.out.println("could not decode every image at once: " + e.getMessage());
 		}
 
-		return (int)sum;
+		//Step 3. one at a time
+		for (PixelKanji k : images){
+			k.raster = k.toRaster();
+		}
 	}
+
 	/**
-	 * toPixels
-	 * turns an image into a pixel array
-	 *  
-	 * @param String fileType - the methods for rendering pixels for .png and .jpg files are different
-	 * @return in[][] pixels
+	 * pinSparse
+	 * pins a training set as ink runs, a batch of images at a time, so the whole set is never held as rasters
+	 * 
+	 * @param kanjis - kanjis read from image files or archives; kanjis that are already sparse are skipped
+	 * @return long - roughly the bytes the runs take
+	 * 
+	 * @note at 400x400 a kanji takes a KB or two this way instead of 20 KB (see SparseRaster)
 	 */
-	public int[][] toPixels(String fileType){
-		
-		if (fileType == ".png"){
-			return toPixels();
-		}
-		
-		if (fileType == ".jpg"){
-			return toPixelsFromData();
+	public static long pinSparse(List<PixelKanji> kanjis){
+		long bytes = 0;
+		for (int first = 0; first < kanjis.size(); first += PIN_BATCH){
+			List<PixelKanji> batch = kanjis.subList(first, Math.min(kanjis.size(), first + PIN_BATCH));
+			pin(batch);
+			for (PixelKanji k : batch){
+				if (k.raster != null){
+					k.sparse = new SparseRaster(k.raster);
+					k.raster = null;
+				}
+				if (k.sparse != null){
+					bytes += k.sparse.bytes();
+				}
+			}
 		}
-		
-		return null;
-		
+		return bytes;
 	}
+
 	/**
 	 * getdata
 	 * gets a data buffer from an image file. functions like get pixels
@@ -207,22 +371,20 @@ public class PixelKanji extends Kanji{
 	
 	/**
 	 * toPixelsFromData
-	 * gets a data buffer from an image file and gets pixels from the buffer
+	 * gets pixels from an image file's data buffer, as they are laid out for .jpg files
 	 *  
-	 * @return int[][] pixels
+	 * @return int[][] pixels - [row][col], with 0 where the pixel's first byte is not 255 and 1 elsewhere
+	 * 
+	 * @note the buffer is read in bulk by RasterDecoder, whatever the image type
 	 */
 	public int[][] toPixelsFromData(){
-		DataBuffer vecData = getdata();		
-		
-		int[][] pixels = new int[400][400];
-		
-		//VectorData contains pixel information in extra dimensions
-		for (int y = 0; y < vecData.getSize(); y++) {
-			if (y % 3 == 0){
-			pixels[y/1200][(y/3) % 400] = vecData.getElem(y)/255;
+		try {
+			BinaryRaster pixels = RasterDecoder.shared().read(new File(source), ".jpg");
+			if (pixels != null){
+				return rasterToPixelsFromData(pixels);
 			}
-		}
-		return pixels;
+		} catch (IOException e) {e.printStackTrace();}
+		return null;
 	}
 	
 	
@@ -0,0 +1,155 @@
+package kanjiClasses;
+/**
+ * PixelModel
+ *
+ * A class's per pixel statistics in flat float arrays, scored against binary rasters
+ *
+ * Pixels are 1 for ink and 0 for paper, and each pixel keeps the fraction of samples that ink it
+ * and a weight 1 / (standard deviation + 1), worked out once instead of divided by per query.
+ * Because a query pixel is 0 or 1, each score splits into a part that depends on the class only
+ * and a part that depends on the query's ink only:
+ *
+ * sum |x - xbar| * w  =  sum xbar * w  +  sum over ink (1 - 2 xbar) * w
+ *
+ * so the first sum is kept and scoring a query reads the two arrays at its ink pixels only.
+ * The scores are the same on either pixel layout, since flipping ink and paper flips both the
+ * pixel and the average.
+ *
+ * Usage:
+ *
+ * PixelModel model = new PixelModel(accumulator);
+ * double z = model.zScore(kanji.toRaster());
+ *
+ */
+
+public class PixelModel {
+
+	public final int width;
+	public final int height;
+	// per pixel, row by row (y * width + x)
+	public final float[] mean;
+	public final float[] weight;
+	// the scores of a blank query
+	private final double zBase;
+	private final double distanceBase;
+
+	/**
+	 * PixelModel constructor
+	 *
+	 * @param accumulator - the class's samples
+	 */
+	public PixelModel(PixelAccumulator accumulator){
+		this(accumulator.width, accumulator.height, accumulator.means(), accumulator.standardDeviations());
+	}
+
+	/**
+	 * PixelModel constructor
+	 *
+	 * @param width - the width of the samples
+	 * @param height - the height of the samples
+	 * @param mean - the fraction of samples inking each pixel, row by row; kept, not copied
+	 * @param deviation - the standard deviation of each pixel, row by row; left unchanged
+	 *
+	 * @pseudocode
+	 * 1. Turn each standard deviation into its weight
+	 * 2. Sum the scores of a blank query
+	 */
+	public PixelModel(int width, int height, float[] mean, float[] deviation){
+		this.width = width;
+		this.height = height;
+		this.mean = mean;
+		weight = new float[deviation.length];
+
+		double z = 0;
+		double distance = 0;
+		for (int i = 0; i < mean.length; i++){
+			//Step 1. weight
+			weight[i] = 1 / (deviation[i] + 1);
+			//Step 2. blank
+			z += mean[i] * weight[i];
+			distance += mean[i];
+		}
+		zBase = z;
+		distanceBase = distance;
+	}
+
+	/**
+	 * zScore
+	 *
+	 * @param query - a raster of the same size
+	 * @return double - the summed z-score of the query's pixels, sum |x - xbar| / (sd + 1)
+	 */
+	public double zScore(BinaryRaster query){
+		double sum = zBase;
+		for (int w = 0; w < query.words.length; w++){
+			long word = query.words[w];
+			while (word != 0){
+				int i = (w << 6) + Long.numberOfTrailingZeros(word);
+				word &= word - 1;
+				sum += (1 - 2 * mean[i]) * weight[i];
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * distance
+	 *
+	 * @param query - a raster of the same size
+	 * @return int - the summed difference of the query's pixels from the average, sum |x - xbar|
+	 */
+	public int distance(BinaryRaster query){
+		double sum = distanceBase;
+		for (int w = 0; w < query.words.length; w++){
+			long word = query.words[w];
+			while (word != 0){
+				sum += 1 - 2 * mean[(w << 6) + Long.numberOfTrailingZeros(word)];
+				word &= word - 1;
+			}
+		}
+		return (int) sum;
+	}
+
+	/**
+	 * mean
+	 *
+	 * @return double - the fraction of samples with ink at (x, y)
+	 */
+	public double mean(int x, int y){
+		return mean[y * width + x];
+	}
+
+	/**
+	 * cellSums
+	 *
+	 * @param cell - pixels per cell side
+	 * @return double[] - the average ink of each cell, laid out as RasterPyramid's cells (row by row)
+	 */
+	public double[] cellSums(int cell){
+		int cellsWide = (width + cell - 1) / cell;
+		double[] sums = new double[((height + cell - 1) / cell) * cellsWide];
+		for (int y = 0; y < height; y++){
+			int base = (y / cell) * cellsWide;
+			for (int x = 0; x < width; x++){
+				sums[base + x / cell] += mean[y * width + x];
+			}
+		}
+		return sums;
+	}
+
+	/**
+	 * toTemplate
+	 *
+	 * @return BinaryRaster - the pixels inked in at least half of the samples
+	 */
+	public BinaryRaster toTemplate(){
+		BinaryRaster template = new BinaryRaster(width, height);
+		for (int i = 0; i < mean.length; i++){
+			if (mean[i] >= 0.5f){
+				template.words[i >>> 6] |= 1L << i;
+			}
+		}
+		return template;
+	}
+
+}
@@ -0,0 +1,308 @@
+package kanjiClasses;
+/**
+ * PointStore
+ *
+ * Every pen trajectory point of a dataset, packed into one short array
+ *
+ * A StrokeKanji keeps only the start and end of each stroke. The store keeps all of the points
+ * instead, at 4 bytes a point, so trajectory features can be computed without decoding the
+ * corpus again. Points can live on the heap or in a direct (off-heap) buffer.
+ *
+ * Layout:
+ * points      - x0, y0, x1, y1, ... for every point of every stroke
+ * strokeStart - the first point of each stroke
+ * sampleStart - the first stroke of each sample
+ * labels      - the kanji of each sample
+ *
+ * Usage:
+ *
+ * PointStore store = PointStore.fromPot(file, false);
+ * for (int s = store.firstStroke(sample); s < store.firstStroke(sample + 1); s++){
+ * 	for (int p = store.firstPoint(s); p < store.firstPoint(s + 1); p++){
+ * 		store.x(p); store.y(p);
+ * 	}
+ * }
+ *
+ * ArrayList<PixelKanji> kanjis = new StrokeRasterizer().toPixelKanjis(store);
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import utils.GBKTable;
+import utils.PotReader;
+
+public class PointStore {
+
+	//the most shorts a store can hold, so a direct buffer's byte count still fits in an int
+	public static final int MAX_SHORTS = Integer.MAX_VALUE / 2;
+
+	private boolean offHeap;
+
+	private int size = 0;
+	private int strokes = 0;
+	private int points = 0;
+	//true between a stroke's first point and its pen lift
+	private boolean strokeOpen = false;
+
+	private ShortBuffer xy;
+	private int[] strokeStart = new int[1024];
+	private int[] sampleStart = new int[256];
+	private char[] labels = new char[256];
+
+	/**
+	 * PointStore constructor
+	 *
+	 * @param offHeap - true to keep the points in a direct buffer outside the Java heap
+	 */
+	public PointStore(boolean offHeap){
+		this.offHeap = offHeap;
+		xy = allocate(1 << 16);
+	}
+
+	//shorts is at most MAX_SHORTS, so shorts * 2 cannot overflow
+	private ShortBuffer allocate(int shorts){
+		if (offHeap){
+			return ByteBuffer.allocateDirect(shorts * 2).order(ByteOrder.nativeOrder()).asShortBuffer();
+		}
+		return ShortBuffer.wrap(new short[shorts]);
+	}
+
+	public int size(){
+		return size;
+	}
+
+	public int strokeCount(){
+		return strokes;
+	}
+
+	public int pointCount(){
+		return points;
+	}
+
+	public Character label(int sample){
+		return labels[sample];
+	}
+
+	/**
+	 * firstStroke
+	 *
+	 * @param sample - a sample number, or size() for the end of the last sample
+	 * @return the stroke number of the sample's first stroke
+	 */
+	public int firstStroke(int sample){
+		return sample == size ? strokes : sampleStart[sample];
+	}
+
+	/**
+	 * firstPoint
+	 *
+	 * @param stroke - a stroke number, or strokeCount() for the end of the last stroke
+	 * @return the point number of the stroke's first point
+	 */
+	public int firstPoint(int stroke){
+		return stroke == strokes ? points : strokeStart[stroke];
+	}
+
+	public int x(int point){
+		return xy.get(point * 2);
+	}
+
+	public int y(int point){
+		return xy.get(point * 2 + 1);
+	}
+
+	/**
+	 * bytes
+	 *
+	 * @return the number of bytes used by the points and offsets
+	 */
+	public long bytes(){
+		return 2L * xy.capacity() + 4L * (strokeStart.length + sampleStart.length) + 2L * labels.length;
+	}
+
+	/**
+	 * startSample
+	 *
+	 * @param label - the kanji of the new sample; its strokes are added with addPoint and endStroke
+	 */
+	public void startSample(Character label){
+		if (size == labels.length){
+			labels = Arrays.copyOf(labels, grow(size));
+			sampleStart = Arrays.copyOf(sampleStart, grow(size));
+		}
+		endStroke();
+		labels[size] = label;
+		sampleStart[size] = strokes;
+		size++;
+	}
+
+	/**
+	 * addPoint
+	 *
+	 * @summary Adds a point to the current stroke, starting a stroke if needed
+	 */
+	public void addPoint(int x, int y){
+		//a new stroke starts after every endStroke
+		if (!strokeOpen){
+			if (strokes == strokeStart.length){
+				strokeStart = Arrays.copyOf(strokeStart, grow(strokes));
+			}
+			strokeStart[strokes++] = points;
+			strokeOpen = true;
+		}
+		long needed = 2L * (points + 1);
+		if (xy.capacity() < needed){
+			if (needed > MAX_SHORTS){
+				throw new IllegalStateException("point store is full at " + points + " points");
+			}
+			ShortBuffer grown = allocate((int) Math.min(2L * xy.capacity(), MAX_SHORTS));
+			xy.clear();
+			xy.limit(points * 2);
+			grown.put(xy);
+			grown.clear();
+			xy = grown;
+		}
+		xy.put(points * 2, (short) x);
+		xy.put(points * 2 + 1, (short) y);
+		points++;
+	}
+
+	//doubles an offset array's length, up to the largest array length
+	private static int grow(int length){
+		if (length >= Integer.MAX_VALUE - 8){
+			throw new IllegalStateException("point store is full at " + length + " entries");
+		}
+		return (int) Math.min(2L * length, Integer.MAX_VALUE - 8);
+	}
+
+	/**
+	 * endStroke
+	 *
+	 * @summary Closes the current stroke (a pen lift); empty strokes are not stored
+	 */
+	public void endStroke(){
+		strokeOpen = false;
+	}
+
+	/**
+	 * add
+	 *
+	 * @param label - the kanji
+	 * @param trajectory - x, y pairs in the .pot layout, where (-1, 0) ends a stroke and (-1, -1) ends the kanji
+	 * @param length - the number of ints of the trajectory to use
+	 */
+	public void add(Character label, int[] trajectory, int length){
+		startSample(label);
+		for (int i = 0; i + 1 < length; i += 2){
+			if (trajectory[i] == -1){
+				endStroke();
+				if (trajectory[i + 1] == -1){
+					break;
+				}
+			}else{
+				addPoint(trajectory[i], trajectory[i + 1]);
+			}
+		}
+		endStroke();
+	}
+
+	/**
+	 * toTrajectory
+	 *
+	 * @param sample - a sample number
+	 * @return int[] - the sample's points in the .pot layout, as used by StrokeKanji.fullStrokes
+	 */
+	public int[] toTrajectory(int sample){
+		int first = firstStroke(sample);
+		int last = firstStroke(sample + 1);
+		int[] trajectory = new int[(firstPoint(last) - firstPoint(first) + (last - first)) * 2 + 2];
+		int i = 0;
+		for (int s = first; s < last; s++){
+			for (int p = firstPoint(s); p < firstPoint(s + 1); p++){
+				trajectory[i++] = x(p);
+				trajectory[i++] = y(p);
+			}
+			trajectory[i++] = -1;
+			trajectory[i++] = 0;
+		}
+		trajectory[i++] = -1;
+		trajectory[i++] = -1;
+		return trajectory;
+	}
+
+	/**
+	 * addPot
+	 *
+	 * @summary Adds every sample of a .pot file straight from its raw samples
+	 *
+	 * @param pot - a CASIA .pot file (or .pot.gz / .zip)
+	 * @throws IOException
+	 *
+	 * @pseudocode
+	 * 1. Read the tag code
+	 * 2. Copy the points, ending a stroke at each (-1, 0)
+	 */
+	public void addPot(File pot) throws IOException{
+		PotReader.SampleBuffers samples = new PotReader(pot).sampleBuffers();
+		while (samples.hasNext()){
+			//Step 1. header
+			ByteBuffer bb = samples.next();
+			int position = bb.position();
+			int end = position + bb.getChar(position);
+			startSample(GBKTable.toUnicode(bb.getChar(position + 2)));
+
+			//Step 2. points
+			for (int i = position + 8; i + 4 <= end; i += 4){
+				short x = bb.getShort(i);
+				short y = bb.getShort(i + 2);
+				if (x == -1){
+					endStroke();
+					if (y == -1){
+						break;
+					}
+				}else{
+					addPoint(x, y);
+				}
+			}
+			endStroke();
+		}
+	}
+
+	/**
+	 * fromPot
+	 *
+	 * @param pot - a CASIA .pot file
+	 * @param offHeap - true to keep the points outside the Java heap
+	 * @return PointStore
+	 * @throws IOException
+	 */
+	public static PointStore fromPot(File pot, boolean offHeap) throws IOException{
+		PointStore store = new PointStore(offHeap);
+		store.addPot(pot);
+		return store;
+	}
+
+	/**
+	 * fromPot
+	 *
+	 * @param files - CASIA .pot files
+	 * @param offHeap - true to keep the points outside the Java heap
+	 * @return PointStore - every sample of every file, in list order
+	 * @throws IOException
+	 */
+	public static PointStore fromPot(List<File> files, boolean offHeap) throws IOException{
+		PointStore store = new PointStore(offHeap);
+		for (File pot : files){
+			store.addPot(pot);
+		}
+		return store;
+	}
+
+}
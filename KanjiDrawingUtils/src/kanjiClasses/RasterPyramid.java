@@ -0,0 +1,100 @@
+package kanjiClasses;
+/**
+ * RasterPyramid
+ *
+ * Ink counts of a BinaryRaster at two coarser resolutions, for ranking candidates cheaply
+ *
+ * A 400x400 raster is summarized as a 100x100 grid (ink per 4x4 cell) and a 25x25 grid
+ * (ink per 16x16 cell). Within a cell the difference of two ink counts can never exceed the
+ * number of pixels that differ, so
+ *
+ * coarseDistance <= mediumDistance <= hamming
+ *
+ * and a search can rank every candidate on 625 cells, re-rank the best few on 10,000 cells,
+ * and compare full rasters only for the last survivors.
+ *
+ */
+
+public class RasterPyramid {
+
+	//pixels per cell side at each level
+	public static final int MEDIUM = 4;
+	public static final int COARSE = 16;
+
+	public final int mediumWidth;
+	public final int mediumHeight;
+	// ink per 4x4 cell, row by row (at most 16, so a byte holds it)
+	public final byte[] medium;
+
+	public final int coarseWidth;
+	public final int coarseHeight;
+	// ink per 16x16 cell, row by row
+	public final short[] coarse;
+
+	/**
+	 * RasterPyramid constructor
+	 *
+	 * @param raster - the full resolution raster
+	 *
+	 * @pseudocode
+	 * 1. Count each ink pixel into its medium cell, walking only the set bits
+	 * 2. Add the medium cells up into the coarse cells
+	 */
+	public RasterPyramid(BinaryRaster raster){
+		mediumWidth = (raster.width + MEDIUM - 1) / MEDIUM;
+		mediumHeight = (raster.height + MEDIUM - 1) / MEDIUM;
+		medium = new byte[mediumWidth * mediumHeight];
+		coarseWidth = (raster.width + COARSE - 1) / COARSE;
+		coarseHeight = (raster.height + COARSE - 1) / COARSE;
+		coarse = new short[coarseWidth * coarseHeight];
+
+		//Step 1. medium cells
+		for (int w = 0; w < raster.words.length; w++){
+			long word = raster.words[w];
+			while (word != 0){
+				int bit = (w << 6) + Long.numberOfTrailingZeros(word);
+				word &= word - 1;
+				int x = bit % raster.width;
+				int y = bit / raster.width;
+				medium[(y / MEDIUM) * mediumWidth + x / MEDIUM]++;
+			}
+		}
+
+		//Step 2. coarse cells
+		int ratio = COARSE / MEDIUM;
+		for (int my = 0; my < mediumHeight; my++){
+			for (int mx = 0; mx < mediumWidth; mx++){
+				coarse[(my / ratio) * coarseWidth + mx / ratio] += medium[my * mediumWidth + mx];
+			}
+		}
+	}
+
+	/**
+	 * coarseDistance
+	 *
+	 * @param other - the pyramid of a raster of the same size
+	 * @return int - the summed difference of the 25x25 ink counts, a lower bound of the Hamming distance
+	 */
+	public int coarseDistance(RasterPyramid other){
+		int sum = 0;
+		for (int i = 0; i < coarse.length; i++){
+			sum += Math.abs(coarse[i] - other.coarse[i]);
+		}
+		return sum;
+	}
+
+	/**
+	 * mediumDistance
+	 *
+	 * @param other - the pyramid of a raster of the same size
+	 * @return int - the summed difference of the 100x100 ink counts, a lower bound of the Hamming distance
+	 */
+	public int mediumDistance(RasterPyramid other){
+		int sum = 0;
+		for (int i = 0; i < medium.length; i++){
+			sum += Math.abs(medium[i] - other.medium[i]);
+		}
+		return sum;
+	}
+
+}
@@ -0,0 +1,221 @@
+package kanjiClasses;
+/**
+ * SparseRaster
+ *
+ * A raster stored as its runs of ink, row by row
+ *
+ * Handwritten kanji are mostly paper and their strokes are a few pixels wide, so a 400x400
+ * sample that takes 640 KB as an int[][] (or 20 KB as a BinaryRaster) is usually a few hundred
+ * runs, a KB or two. PixelKnn keeps its training set this way in sparse mode (see
+ * PixelKanji.pinSparse), so a set many times larger fits in memory. The query is encoded once
+ * and compared by walking both rows of runs together, so a comparison costs about as much as
+ * the two kanjis have runs, and the ink counts are kept with the runs instead of recounted.
+ *
+ * Usage:
+ *
+ * SparseRaster sample = new SparseRaster(kanji.toRaster());
+ * int distance = sample.hamming(new SparseRaster(query.toRaster()));
+ *
+ */
+
+public class SparseRaster {
+
+	public final int width;
+	public final int height;
+	public final int ink;
+	// the runs of row y are runs[2 * rows[y]] up to runs[2 * rows[y + 1]], each a start (inclusive) and an end (exclusive)
+	public final int[] rows;
+	public final short[] runs;
+
+	/**
+	 * SparseRaster constructor
+	 *
+	 * @param raster - the raster to encode, at most 32767 pixels wide
+	 *
+	 * @pseudocode
+	 * 1. Count the runs of each row
+	 * 2. Record where each run starts and ends
+	 */
+	public SparseRaster(BinaryRaster raster){
+		if (raster.width > Short.MAX_VALUE){
+			throw new IllegalArgumentException("too wide for a sparse raster: " + raster.width);
+		}
+		width = raster.width;
+		height = raster.height;
+		rows = new int[height + 1];
+
+		//Step 1. count
+		for (int y = 0; y < height; y++){
+			int count = 0;
+			boolean inked = false;
+			for (int x = 0; x < width; x++){
+				boolean pixel = raster.get(x, y);
+				if (pixel && !inked){
+					count++;
+				}
+				inked = pixel;
+			}
+			rows[y + 1] = rows[y] + count;
+		}
+
+		//Step 2. record
+		runs = new short[2 * rows[height]];
+		int r = 0;
+		for (int y = 0; y < height; y++){
+			boolean inked = false;
+			for (int x = 0; x < width; x++){
+				boolean pixel = raster.get(x, y);
+				if (pixel != inked){
+					runs[r++] = (short) x;
+				}
+				inked = pixel;
+			}
+			if (inked){
+				runs[r++] = (short) width;
+			}
+		}
+		int total = 0;
+		for (int i = 0; i < runs.length; i += 2){
+			total += runs[i + 1] - runs[i];
+		}
+		ink = total;
+	}
+
+	/**
+	 * runCount
+	 *
+	 * @return int - the number of runs
+	 */
+	public int runCount(){
+		return rows[height];
+	}
+
+	/**
+	 * overlap
+	 *
+	 * @param other - a sparse raster of the same size
+	 * @return int - the number of pixels that are ink in both
+	 *
+	 * @pseudocode
+	 * 1. Walk the runs of each row of both rasters together, in order of their ends
+	 * 2. Add the length each pair of runs has in common
+	 */
+	public int overlap(SparseRaster other){
+		if (other.width != width || other.height != height){
+			throw new IllegalArgumentException("expected a " + width + "x" + height + " raster, not " + other.width + "x" + other.height);
+		}
+		short[] otherRuns = other.runs;
+		int sum = 0;
+		for (int y = 0; y < height; y++){
+			//Step 1. walk
+			int r = 2 * rows[y];
+			int rEnd = 2 * rows[y + 1];
+			int s = 2 * other.rows[y];
+			int sEnd = 2 * other.rows[y + 1];
+			while (r < rEnd && s < sEnd){
+				//Step 2. common length
+				int from = Math.max(runs[r], otherRuns[s]);
+				int to = Math.min(runs[r + 1], otherRuns[s + 1]);
+				if (from < to){
+					sum += to - from;
+				}
+				if (runs[r + 1] < otherRuns[s + 1]){
+					r += 2;
+				}else{
+					s += 2;
+				}
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * hamming
+	 *
+	 * @param other - a sparse raster of the same size
+	 * @return int - the number of pixels that are ink in one and paper in the other, as BinaryRaster.hamming
+	 */
+	public int hamming(SparseRaster other){
+		return ink + other.ink - 2 * overlap(other);
+	}
+
+	/**
+	 * overlap
+	 *
+	 * @param raster - a raster of the same size
+	 * @return int - the number of pixels that are ink in both
+	 *
+	 * @pseudocode
+	 * 1. For each run, find its bits in the raster's words
+	 * 2. Count the raster's ink among them, a word at a time
+	 */
+	public int overlap(BinaryRaster raster){
+		int sum = 0;
+		for (int y = 0; y < height; y++){
+			int base = y * width;
+			for (int r = 2 * rows[y]; r < 2 * rows[y + 1]; r += 2){
+				//Step 1. bits
+				int from = base + runs[r];
+				int to = base + runs[r + 1];
+				//Step 2. count
+				sum += bitCount(raster.words, from, to);
+			}
+		}
+		return sum;
+	}
+
+	//the set bits from bit 'from' up to, not including, bit 'to'
+	private static int bitCount(long[] words, int from, int to){
+		int w = from >>> 6;
+		int last = (to - 1) >>> 6;
+		long head = -1L << from;
+		long tail = -1L >>> -to;
+		if (w == last){
+			return Long.bitCount(words[w] & head & tail);
+		}
+		int sum = Long.bitCount(words[w] & head);
+		for (w++; w < last; w++){
+			sum += Long.bitCount(words[w]);
+		}
+		return sum + Long.bitCount(words[last] & tail);
+	}
+
+	/**
+	 * hamming
+	 *
+	 * @param raster - a raster of the same size
+	 * @return int - the number of pixels that are ink in one and paper in the other, as BinaryRaster.hamming
+	 *
+	 * @note counts the raster's ink on every call - to compare one query with many kanjis, encode it once and use hamming(SparseRaster)
+	 */
+	public int hamming(BinaryRaster raster){
+		return ink + raster.inkCount() - 2 * overlap(raster);
+	}
+
+	/**
+	 * toRaster
+	 *
+	 * @return BinaryRaster - the dense form of the same pixels
+	 */
+	public BinaryRaster toRaster(){
+		BinaryRaster raster = new BinaryRaster(width, height);
+		for (int y = 0; y < height; y++){
+			for (int r = 2 * rows[y]; r < 2 * rows[y + 1]; r += 2){
+				for (int x = runs[r]; x < runs[r + 1]; x++){
+					raster.set(x, y);
+				}
+			}
+		}
+		return raster;
+	}
+
+	/**
+	 * bytes
+	 *
+	 * @return long - roughly the memory the runs take
+	 */
+	public long bytes(){
+		return 4L * rows.length + 2L * runs.length;
+	}
+
+}
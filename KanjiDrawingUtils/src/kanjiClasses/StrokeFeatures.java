@@ -0,0 +1,209 @@
+package kanjiClasses;
+/**
+ * StrokeFeatures
+ *
+ * Column-oriented feature matrix for many StrokeKanjis
+ *
+ * Each feature is one flat int array with a fixed width per kanji, so row r of lengths is
+ * lengths[r*STROKES ... r*STROKES + STROKES-1]. This is the layout FeatureCache writes to disk.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class StrokeFeatures {
+
+	//there will never be more than 30 strokes per kanji
+	public static final int STROKES = 30;
+	public static final int MOVES = STROKES - 1;
+	public static final int POINTS = STROKES * 4;
+
+	// the number of kanjis in the matrix
+	public int size;
+	// true if the kanjis came from collected .txt files rather than CASIA .pot files
+	public boolean collected;
+
+	// one entry per kanji
+	public char[] labels;
+	public int[] numstrokes;
+
+	// fixed width entries per kanji
+	public int[] reducedStrokes;
+	public int[] lengths;
+	public int[] angles;
+	public int[] moves;
+
+	public StrokeFeatures(int capacity, boolean collected){
+		this.collected = collected;
+		capacity = Math.max(capacity, 1);
+		labels = new char[capacity];
+		numstrokes = new int[capacity];
+		reducedStrokes = new int[capacity * POINTS];
+		lengths = new int[capacity * STROKES];
+		angles = new int[capacity * STROKES];
+		moves = new int[capacity * MOVES];
+	}
+
+	/**
+	 * ensureCapacity
+	 * grows every column to hold at least capacity kanjis
+	 *
+	 * @param capacity
+	 */
+	public void ensureCapacity(int capacity){
+		if (capacity <= labels.length){
+			return;
+		}
+		capacity = Math.max(capacity, labels.length * 2);
+		labels = Arrays.copyOf(labels, capacity);
+		numstrokes = Arrays.copyOf(numstrokes, capacity);
+		reducedStrokes = Arrays.copyOf(reducedStrokes, capacity * POINTS);
+		lengths = Arrays.copyOf(lengths, capacity * STROKES);
+		angles = Arrays.copyOf(angles, capacity * STROKES);
+		moves = Arrays.copyOf(moves, capacity * MOVES);
+	}
+
+	/**
+	 * add
+	 * copies a kanji's features into a new row
+	 *
+	 * @param k - the kanji to add
+	 * @return int - the row the kanji was written to
+	 */
+	public int add(StrokeKanji k){
+		ensureCapacity(size + 1);
+		int row = size++;
+		labels[row] = k.label != null ? k.label : 0;
+		numstrokes[row] = k.numstrokes;
+		copyRow(k.reducedStrokes, reducedStrokes, row, POINTS);
+		copyRow(k.lengths, lengths, row, STROKES);
+		copyRow(k.angles, angles, row, STROKES);
+		copyRow(k.moves, moves, row, MOVES);
+		return row;
+	}
+
+	/**
+	 * addRow
+	 * appends an empty row for a decoder to fill in place
+	 *
+	 * @return int - the new row
+	 */
+	public int addRow(){
+		ensureCapacity(size + 1);
+		int row = size++;
+		labels[row] = 0;
+		numstrokes[row] = 0;
+		Arrays.fill(reducedStrokes, row * POINTS, (row + 1) * POINTS, 0);
+		Arrays.fill(lengths, row * STROKES, (row + 1) * STROKES, 0);
+		Arrays.fill(angles, row * STROKES, (row + 1) * STROKES, 0);
+		Arrays.fill(moves, row * MOVES, (row + 1) * MOVES, 0);
+		return row;
+	}
+
+	/**
+	 * addAll
+	 * appends every row of another matrix
+	 *
+	 * @param other - the rows to add
+	 */
+	public void addAll(StrokeFeatures other){
+		ensureCapacity(size + other.size);
+		System.arraycopy(other.labels, 0, labels, size, other.size);
+		System.arraycopy(other.numstrokes, 0, numstrokes, size, other.size);
+		System.arraycopy(other.reducedStrokes, 0, reducedStrokes, size * POINTS, other.size * POINTS);
+		System.arraycopy(other.lengths, 0, lengths, size * STROKES, other.size * STROKES);
+		System.arraycopy(other.angles, 0, angles, size * STROKES, other.size * STROKES);
+		System.arraycopy(other.moves, 0, moves, size * MOVES, other.size * MOVES);
+		size += other.size;
+	}
+
+	private static void copyRow(int[] from, int[] column, int row, int width){
+		if (from != null){
+			System.arraycopy(from, 0, column, row * width, Math.min(from.length, width));
+		}
+	}
+
+	/**
+	 * toKanji
+	 * rebuilds the StrokeKanji for one row, laid out the way its source decoder would have built it
+	 *
+	 * @param row
+	 * @return StrokeKanji
+	 *
+	 * @note only the features are stored, so the kanji has no fullStrokes and cannot be rasterized
+	 */
+	public StrokeKanji toKanji(int row){
+		StrokeKanji k;
+		if (collected){
+			//same as textToStrokeKanji
+			k = new StrokeKanji(Arrays.copyOfRange(reducedStrokes, row * POINTS, (row + 1) * POINTS));
+		}else{
+			//same as decodeToStrokes
+			k = new StrokeKanji();
+			k.reducedStrokes = Arrays.copyOfRange(reducedStrokes, row * POINTS, (row + 1) * POINTS);
+			k.lengths = new int[STROKES];
+			k.angles = new int[STROKES];
+			k.moves = new int[MOVES];
+		}
+		k.label = labels[row];
+		k.numstrokes = numstrokes[row];
+		System.arraycopy(lengths, row * STROKES, k.lengths, 0, STROKES);
+		System.arraycopy(angles, row * STROKES, k.angles, 0, STROKES);
+		System.arraycopy(moves, row * MOVES, k.moves, 0, MOVES);
+		return k;
+	}
+
+	/**
+	 * appendTo
+	 * writes one row as StrokeKanji.toString would, straight from the columns
+	 *
+	 * @param row
+	 * @param sb - the buffer to append to
+	 * @return StringBuilder sb
+	 */
+	public StringBuilder appendTo(int row, StringBuilder sb){
+		sb.append("Kanji: [").append(labels[row]);
+		sb.append("] strokes: [");
+		for (int i = row * POINTS; i < (row + 1) * POINTS; i++){
+			if (reducedStrokes[i] != 0){
+				sb.append(reducedStrokes[i] / 25).append(", ");
+			}
+		}
+		sb.setLength(sb.length() - 2);
+		sb.append(']');
+
+		return sb;
+	}
+
+	/**
+	 * toKanjis
+	 *
+	 * @return ArrayList<StrokeKanji> - one kanji per row
+	 */
+	public ArrayList<StrokeKanji> toKanjis(){
+		ArrayList<StrokeKanji> kanjis = new ArrayList<StrokeKanji>(size);
+		for (int row = 0; row < size; row++){
+			kanjis.add(toKanji(row));
+		}
+		return kanjis;
+	}
+
+	/**
+	 * fromKanjis
+	 *
+	 * @param kanjis - the kanjis to copy
+	 * @param collected - true for kanjis from collected .txt files
+	 * @return StrokeFeatures - one row per kanji
+	 */
+	public static StrokeFeatures fromKanjis(Iterable<StrokeKanji> kanjis, boolean collected){
+		StrokeFeatures features = new StrokeFeatures(64, collected);
+		for (StrokeKanji k : kanjis){
+			if (k != null){
+				features.add(k);
+			}
+		}
+		return features;
+	}
+
+}
@@ -10,9 +10,16 @@ package kanjiClasses;
  */
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import utils.ChineseOnlineHandwritingToJPG;
+import utils.CorpusLoader;
+import utils.CorpusStreams;
+import utils.FeatureCache;
+import utils.GBKTable;
 import utils.ImageProcessingUtils;
+import utils.PotIndex;
+import utils.PotReader;
+import utils.SampleFilter;
 
 
 public class StrokeKanji extends Kanji{
@@ -21,7 +28,7 @@ public class StrokeKanji extends Kanji{
 	public int numstrokes;
 	// the GBK code of the kanji
 	public Character label;
-	//list of all values the user's pen passes through
+	//list of all values the user's pen passes through (only kept when decoded for rasterizing)
 	public int[] fullStrokes;
 	//list of start/end xy points for the strokes
 	public int[] reducedStrokes;
@@ -88,30 +95,127 @@ public class StrokeKanji extends Kanji{
 	 * @param folder - the data file 
 	 * @param fileType - distinguished between ".pot" - CASIA files and ".txt" - Collected files
 	 * @return StrokeKanji[] the kanji array
+	 * 
+	 * @note features are read from the file's FeatureCache when it is fresh, and cached after parsing when it is not
 	 */
 	public static StrokeKanji[] getKanjis(File folder, String fileType){
 		StrokeKanji[] kanjis = null;
-		if (fileType == ".pot"){
-			kanjis = new ChineseOnlineHandwritingToJPG().decodeAll(folder, false);}
-		if (fileType == ".txt"){
-			ArrayList<StrokeKanji> kanjiArray = new ImageProcessingUtils().textToStrokeKanji(folder.getAbsolutePath());
+		if (fileType.equals(".pot") || fileType.equals(".txt")){
+			ArrayList<StrokeKanji> kanjiArray = FeatureCache.loadKanjis(folder, fileType);
 			kanjis = new StrokeKanji[kanjiArray.size()];
 			kanjis = (StrokeKanji[]) kanjiArray.toArray(kanjis);}
 		return kanjis;
 	}
 
+	/**
+	 * readKanjis
+	 * Static method to iterate over the kanjis in a data file without building an array
+	 * 
+	 * @param file - the data file 
+	 * @param fileType - distinguished between ".pot" - CASIA files and ".txt" - Collected files
+	 * @return Iterable<StrokeKanji> - .pot samples are decoded one at a time as they are requested
+	 */
+	public static Iterable<StrokeKanji> readKanjis(File file, String fileType){
+		StrokeFeatures cached = FeatureCache.readFresh(file);
+		if (cached != null){
+			return cached.toKanjis();
+		}
+		if (fileType.equals(".pot")){
+			return new PotReader(file);
+		}
+		if (fileType.equals(".txt")){
+			return new ImageProcessingUtils().textToStrokeKanji(file.getAbsolutePath());
+		}
+		return new ArrayList<StrokeKanji>();
+	}
+
+	/**
+	 * readKanjis
+	 * Static method to get only the kanjis whose header passes a filter
+	 * 
+	 * @param file - the data file 
+	 * @param fileType - distinguished between ".pot" - CASIA files and ".txt" - Collected files
+	 * @param filter - the samples to keep
+	 * @return Iterable<StrokeKanji> - rejected .pot samples are skipped without being decoded
+	 */
+	public static Iterable<StrokeKanji> readKanjis(File file, String fileType, SampleFilter filter){
+		if (fileType.equals(".pot")){
+			return new PotReader(file, null, filter);
+		}
+		ArrayList<StrokeKanji> matches = new ArrayList<StrokeKanji>();
+		for (StrokeKanji k : readKanjis(file, fileType)){
+			if (k != null && filter.accept(0, GBKTable.toGBK(k.label), k.numstrokes)){
+				matches.add(k);
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * readKanjis
+	 * Static method to get only the kanjis with one label from a data file
+	 * 
+	 * @param file - the data file 
+	 * @param fileType - distinguished between ".pot" - CASIA files and ".txt" - Collected files
+	 * @param label - the kanji to keep
+	 * @return Iterable<StrokeKanji> - .pot files seek straight to the label's samples using their PotIndex
+	 */
+	public static Iterable<StrokeKanji> readKanjis(File file, String fileType, Character label){
+		if (fileType.equals(".pot") && CorpusStreams.isCompressed(file)){
+			//compressed files cannot be indexed, so skip the other labels by their headers
+			return new PotReader(file, null, SampleFilter.labels(label));
+		}
+		if (fileType.equals(".pot")){
+			try {
+				PotIndex index = PotIndex.load(file);
+				return index.decode(index.samplesWithLabel(label));
+			} catch (IOException e) {e.printStackTrace();}
+		}
+		ArrayList<StrokeKanji> matches = new ArrayList<StrokeKanji>();
+		for (StrokeKanji k : readKanjis(file, fileType)){
+			if (k != null && label.equals(k.label)){
+				matches.add(k);
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * loadKanjis
+	 * Static method to get every kanji in a folder of data files, decoding the files in parallel
+	 * 
+	 * @param folder - the data folder
+	 * @param fileType - distinguished between ".pot" - CASIA files and ".txt" - Collected files
+	 * @return ArrayList<StrokeKanji> the kanjis, in file name order
+	 */
+	public static ArrayList<StrokeKanji> loadKanjis(File folder, String fileType){
+		return new CorpusLoader().load(folder, fileType);
+	}
+
 	//prints the Kanji and its strokes
 	public String toString(){
-		String mystring = "Kanji: [" + label;
-		mystring += "] strokes: [";
+		return appendTo(new StringBuilder()).toString();
+	}
+
+	/**
+	 * appendTo
+	 * writes the same text as toString into a buffer, so exporters can reuse one buffer per thread
+	 * 
+	 * @param sb - the buffer to append to
+	 * @return StringBuilder sb
+	 */
+	public StringBuilder appendTo(StringBuilder sb){
+		sb.append("Kanji: [").append(label);
+		sb.append("] strokes: [");
 		for (int stroke : reducedStrokes){
 			if (stroke != 0){
-				mystring += "" + (int)(stroke/25) + ", ";
+				sb.append(stroke / 25).append(", ");
 			}
 		}
-		mystring = mystring.substring(0, mystring.length() - 2) + "]";
+		sb.setLength(sb.length() - 2);
+		sb.append(']');
 
-		return mystring;
+		return sb;
 	}
 
 	/**
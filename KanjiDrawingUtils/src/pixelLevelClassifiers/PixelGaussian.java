@@ -15,20 +15,41 @@ package pixelLevelClassifiers;
  * 2. Univariate Classifier: You can classify an unknown kanji based on the distance of its pixels
  * from the average of all kanji tokens of each type
  * 
+ * 3. Chamfer Classifier: You can classify an unknown kanji as the label whose template (the pixels
+ * inked in most tokens) has strokes nearest to its strokes, using distance transforms
+ * 
  * Etai Klein
  * 6/7/14
  * 
  */
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import classifierInterfaces.GaussianInterface;
 
+import kanjiClasses.BinaryRaster;
+import kanjiClasses.DistanceTransform;
 import kanjiClasses.Kanji;
 import kanjiClasses.PixelKanji;
+import kanjiClasses.RasterPyramid;
+import kanjiClasses.PixelAccumulator;
+import utils.RasterCache;
+import utils.TransformCache;
 
 
 
@@ -41,26 +62,65 @@ public class PixelGaussian implements GaussianInterface{
 	//correct, incorrect
 	public int[] distanceStats = new int[2];
 
+	//correct, incorrect
+	public int[] chamferStats = new int[2];
+
 	//map keeps track of the average kanji for each type
 	private HashMap<Character, PixelKanji> kanjiInfoMap = new HashMap<Character, PixelKanji>();
 
-	//The distirbution- intialized to 60 tokens but changed later
-	int[][][] allKanjiPixels = new int[60][400][400];
+	//the class templates' distance transforms, for chamfer scores
+	private TransformCache transforms = new TransformCache(TransformCache.DEFAULT_CAPACITY);
+
+	//classes being built one kanji at a time with updateDistribution, until finish or train builds their models
+	private HashMap<Character, PixelAccumulator> pending = new HashMap<Character, PixelAccumulator>();
+
+	//how many classes are scored at full resolution (0 scores them all)
+	private int shortlist;
 
-	//iterator for allKanjiPixels
-	int currentKanji;
+	//each class's average summed over 16x16 cells, for ranking classes before scoring them
+	private HashMap<Character, double[]> coarseAverages = new HashMap<Character, double[]>();
 
-	private String type; //.png or .jpg?
+	public PixelGaussian(){
+		this(0);
+	}
+
+	//ranks the classes on coarse averages first and only scores the best shortlist of them pixel by pixel
+	public PixelGaussian(int shortlist){
+		this.shortlist = shortlist;
+	}
 
 	/**
 	 * updateDistribution
-	 * adds the current kanji to the distribution
+	 * adds the current kanji to the distribution of its class
 	 * 
 	 * @param Kanji - the kanji to add to the distribution
+	 * 
+	 * @note the class is not scored until finish (or train) builds its model
 	 */
 	public void updateDistribution(Kanji k){
-		System.out.println("adding..." + k.source);
-		allKanjiPixels[currentKanji++] = ((PixelKanji) k).toPixels(type);
+		PixelAccumulator accumulator = add(pending.get(k.label), (PixelKanji) k);
+		if (accumulator != null){
+			pending.put(k.label, accumulator);
+		}
+	}
+
+	/**
+	 * finish
+	 * builds the model of a class whose kanji were added with updateDistribution, so test kanji are scored against it
+	 * 
+	 * @param label - the class
+	 * @return PixelKanji - the class's model, or null if no kanji of the class was added since it was last built
+	 * 
+	 * @note replaces the class's previous model
+	 */
+	public PixelKanji finish(Character label){
+		PixelAccumulator accumulator = pending.remove(label);
+		if (accumulator == null){
+			return null;
+		}
+		PixelKanji ki = buildModel(label, accumulator);
+		keep(ki);
+		return ki;
 	}
 
 	@Override
@@ -70,7 +130,7 @@ public class PixelGaussian implements GaussianInterface{
 	 * 
 	 * @param test - the kanji to classify
 	 * @param train - the kanji to use in the distribution
-	 * @param fileType
+	 * @param fileType - ".jpg", ".png", or ".pot" to rasterize stroke data
 	 * 
 	 * @pseudocode:
 	 * 1.build a distribution of each kanji
@@ -78,91 +138,270 @@ public class PixelGaussian implements GaussianInterface{
 	 * 3.score test kanji 
 	 * 4.classify using the best score
 	 * 
+	 * @note each class's template is built once, while training, and its distance transform is kept in this classifier's TransformCache while it has room
+	 * 
 	 */
 	public void test(File test, File train, String fileType) {
 
-		type = fileType;
+		//train and test may be image folders, .pot folders or raster archives
+		ArrayList<PixelKanji> training = PixelKanji.getKanjis(train, fileType);
 
-		//for each image
-		for (final File fileEntry : train.listFiles()) {
-			if (fileEntry.getName().endsWith(fileType)){
+		//build a distribution of every kanji at once, reading each training image once
+		train(training);
 
-				//if the kanji is not in the hashmap, run through each kanji in the folder 
-				if (!kanjiInfoMap.containsKey(fileEntry.getName().charAt(0))){
-					PixelKanji ki = new PixelKanji(fileEntry.getName().charAt(0));
+		//test step
 
-					for (final File innerFileEntry : train.listFiles()) {
-						if (fileEntry.getName().endsWith(fileType) && innerFileEntry.getName().charAt(0) == ki.label){
-							//build a distribution using all pixels of the same kanji
-							currentKanji = ki.tokens;
-							updateDistribution(new PixelKanji(innerFileEntry.getAbsolutePath()));
-							ki.tokens++;
-						}
-					}
-					//get the average and standard deviation
-					ki.buildAveragePixels(allKanjiPixels);
-					ki.renderAverage();
-					ki.buildStandardDeviation(allKanjiPixels);
-					kanjiInfoMap.put(ki.label, ki);		
-					//reset the average
-					allKanjiPixels = new int[60][400][400];
+		//for each kanji in the folder
+		for (PixelKanji testkanji : PixelKanji.getKanjis(test, fileType)) {
+			//use lowestZ for z-score and highestz for distance (er... overlap)
+			double lowestZ = Integer.MAX_VALUE;
+			double closest = Integer.MAX_VALUE;
+
+			char guess1 = 0;
+
+			char guess2 = 0;
+
+			int closestChamfer = Integer.MAX_VALUE;
+			char guess3 = 0;
+
+			//the class models score the packed pixels directly, whatever the file type
+			BinaryRaster testRaster = testkanji.toRaster();
+			if (testRaster == null){
+				System.out.println("could not read " + testkanji.source);
+				continue;
+			}
+			//the query's transform is only needed for this kanji, so it is not cached
+			DistanceTransform testTransform = new DistanceTransform(testRaster);
 
+			//get the kanji with the lowest zscore from the map
+			Iterator<PixelKanji> iter = candidates(testkanji).iterator();
+			lowestZ = Integer.MAX_VALUE;
+			closest = Integer.MAX_VALUE;
+			while (iter.hasNext()){
+				PixelKanji ki = iter.next();
+				//get the score
+				double distance = ki.model.distance(testRaster);
+				double zScore = ki.model.zScore(testRaster);
+				//update the best score
+				if (zScore < lowestZ) { 
+					guess1 = ki.label;
+					lowestZ = zScore;
+				}
+				if (distance < closest) {
+					guess2 = ki.label;
+					closest = distance;
+				}
+				//only the ink pixels of each are looked at
+				int chamfer = DistanceTransform.chamfer(testRaster, testTransform, ki.raster, transforms.get(ki));
+				if (chamfer < closestChamfer) {
+					guess3 = ki.label;
+					closestChamfer = chamfer;
 				}
 			}
+			//track stats
+			if (guess1 == testkanji.label){
+				zScoreStats[0]++;
+			}else{zScoreStats[1]++;}
+
+			if (guess2 == testkanji.label){
+				distanceStats[0]++;
+			}else{distanceStats[1]++;}
+
+			if (guess3 == testkanji.label){
+				chamferStats[0]++;
+			}else{chamferStats[1]++;}
+
+			//print
+			System.out.println("guessZsco: " + guess1 + " actual: " + testkanji.label + " correct: " + zScoreStats[0] + 
+					" incorrect: " + zScoreStats[1] + " percentage: "  + ((double)zScoreStats[0]/(double)(zScoreStats[0]+zScoreStats[1])));
+
+			System.out.println("guessDist: " + guess2 + " actual: " + testkanji.label + " correct: " + distanceStats[0] + 
+					" incorrect: " + distanceStats[1] + " percentage: "  + ((double)distanceStats[0]/(double)(distanceStats[0]+distanceStats[1])));
+
+			System.out.println("guessCham: " + guess3 + " actual: " + testkanji.label + " correct: " + chamferStats[0] + 
+					" incorrect: " + chamferStats[1] + " percentage: "  + ((double)chamferStats[0]/(double)(chamferStats[0]+chamferStats[1])));
+
 		}
+		System.out.println(RasterCache.shared());
+	}
 
-		//test step
+	/**
+	 * train
+	 * builds every class model in one pass over the training kanji
+	 * 
+	 * @param training - the training kanji, of any labels in any order
+	 * 
+	 * @pseudocode:
+	 * 1.route each kanji to its label, in the order the labels first appear
+	 * 2.build the labels' models concurrently, each sample decoded once into its label's accumulator,
+	 *   merged with the kanji added to the label with updateDistribution
+	 * 3.keep the models
+	 * 
+	 * @note training is linear in the number of kanji; only one accumulator per thread is alive at a time
+	 * @note training images are read straight from their files, not through the RasterCache: each is read
+	 * once, so caching them would only evict the test kanji
+	 */
+	public void train(List<PixelKanji> training){
 
-		//for each kanji in the folder
-		for (final File fileEntry : test.listFiles()) {
-			if (fileEntry.getName().endsWith(fileType)){
-				//use lowestZ for z-score and highestz for distance (er... overlap)
-				double lowestZ = Integer.MAX_VALUE;
-				double closest = Integer.MAX_VALUE;
-
-				char guess1 = 0;
-
-				char guess2 = 0;
-
-				//get the kanji with the lowest zscore from the map
-				Iterator<Entry<Character, PixelKanji>> iter = kanjiInfoMap.entrySet().iterator();
-				lowestZ = Integer.MAX_VALUE;
-				closest = Integer.MAX_VALUE;
-				while (iter.hasNext()){
-					PixelKanji ki = kanjiInfoMap.get(iter.next().getKey());
-					PixelKanji testkanji = new PixelKanji(fileEntry.getAbsolutePath());
-					//get the score
-					double distance = ki.distance(testkanji.toPixels(fileType));
-					double zScore = ki.getZScore(testkanji.toPixels(fileType));
-					//update the best score
-					if (zScore < lowestZ) { 
-						guess1 = ki.label;
-						lowestZ = zScore;
+		//Step 1. route
+		LinkedHashMap<Character, ArrayList<PixelKanji>> byLabel = new LinkedHashMap<Character, ArrayList<PixelKanji>>();
+		for (PixelKanji k : training){
+			ArrayList<PixelKanji> samples = byLabel.get(k.label);
+			if (samples == null){
+				samples = new ArrayList<PixelKanji>();
+				byLabel.put(k.label, samples);
+			}
+			samples.add(k);
+		}
+		for (Character label : pending.keySet()){
+			if (!byLabel.containsKey(label)){
+				byLabel.put(label, new ArrayList<PixelKanji>());
+			}
+		}
+
+		//Step 2. build
+		int threads = Math.min(Runtime.getRuntime().availableProcessors(), Math.max(1, byLabel.size()));
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			ArrayList<Future<PixelKanji>> models = new ArrayList<Future<PixelKanji>>(byLabel.size());
+			for (final Entry<Character, ArrayList<PixelKanji>> entry : byLabel.entrySet()){
+				final PixelAccumulator added = pending.remove(entry.getKey());
+				models.add(pool.submit(new Callable<PixelKanji>(){
+					public PixelKanji call(){
+						return buildModel(entry.getKey(), entry.getValue(), added);
 					}
-					if (distance < closest) {
-						guess2 = ki.label;
-						closest = distance;
+				}));
+			}
+
+			//Step 3. keep
+			for (Future<PixelKanji> model : models){
+				try {
+					PixelKanji ki = model.get();
+					if (ki != null){
+						keep(ki);
 					}
+				} catch (ExecutionException e) {
+					e.getCause().printStackTrace();
 				}
-				//track stats
-				if (guess1 == fileEntry.getName().charAt(0)){
-					zScoreStats[0]++;
-				}else{zScoreStats[1]++;}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * buildModel
+	 * builds one class model from its samples
+	 * 
+	 * @param label - the class
+	 * @param samples - the training kanji with that label
+	 * @param added - the kanji already added to the class with updateDistribution, or null
+	 * @return PixelKanji - the class's average, standard deviation and template, or null if no sample could be read
+	 */
+	PixelKanji buildModel(Character label, List<PixelKanji> samples, PixelAccumulator added){
+		PixelAccumulator classAccumulator = null;
+		for (PixelKanji k : samples){
+			classAccumulator = add(classAccumulator, k);
+		}
+		if (added != null){
+			if (classAccumulator == null){
+				classAccumulator = added;
+			}else{
+				classAccumulator.merge(added);
+			}
+		}
+		if (classAccumulator == null){
+			return null;
+		}
+		return buildModel(label, classAccumulator);
+	}
 
-				if (guess2 == fileEntry.getName().charAt(0)){
-					distanceStats[0]++;
-				}else{distanceStats[1]++;}
+	//builds a class's average, standard deviation and template from its samples
+	PixelKanji buildModel(Character label, PixelAccumulator classAccumulator){
+		//get the average and standard deviation
+		PixelKanji ki = new PixelKanji(label);
+		ki.buildStatistics(classAccumulator);
+		ki.renderAverage();
+		ki.buildTemplate();
+		transforms.get(ki);
+		return ki;
+	}
+
+	//registers a class's model for testing, replacing its previous one; progress is reported here, once per class, on the calling thread
+	private void keep(PixelKanji ki){
+		System.out.println("built " + ki.label + " from " + ki.tokens + " kanji");
+		PixelKanji previous = kanjiInfoMap.put(ki.label, ki);
+		if (previous != null){
+			transforms.remove(previous);
+		}
+		coarseAverages.put(ki.label, ki.model.cellSums(RasterPyramid.COARSE));
+	}
 
-				//print
-				System.out.println("guessZsco: " + guess1 + " actual: " + fileEntry.getName().charAt(0) + " correct: " + zScoreStats[0] + 
-						" incorrect: " + zScoreStats[1] + " percentage: "  + ((double)zScoreStats[0]/(double)(zScoreStats[0]+zScoreStats[1])));
+	//adds a training kanji to a class's accumulator, creating it with the first kanji; a sparse kanji is added by its runs
+	private static PixelAccumulator add(PixelAccumulator accumulator, PixelKanji k){
+		if (k.sparse != null){
+			if (accumulator == null){
+				accumulator = new PixelAccumulator(k.sparse.width, k.sparse.height);
+			}
+			accumulator.add(k.sparse);
+			return accumulator;
+		}
+		BinaryRaster pixels = read(k);
+		if (pixels == null){
+			System.out.println("could not read " + k.source);
+			return accumulator;
+		}
+		if (accumulator == null){
+			accumulator = new PixelAccumulator(pixels.width, pixels.height);
+		}
+		accumulator.add(pixels);
+		return accumulator;
+	}
 
-				System.out.println("guessDist: " + guess2 + " actual: " + fileEntry.getName().charAt(0) + " correct: " + distanceStats[0] + 
-						" incorrect: " + distanceStats[1] + " percentage: "  + ((double)distanceStats[0]/(double)(distanceStats[0]+distanceStats[1])));
+	//reads a training kanji's pixels, decoding an image straight from its file
+	private static BinaryRaster read(PixelKanji k){
+		if (k.raster != null || k.source == null){
+			return k.toRaster();
+		}
+		try {
+			return RasterCache.decode(k.source);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
 
-			}		
+	/**
+	 * candidates
+	 * picks the classes worth scoring at full resolution
+	 * 
+	 * @param testKanji - the kanji to classify
+	 * @return every class, or the shortlist whose coarse averages are closest to the kanji's
+	 */
+	Collection<PixelKanji> candidates(PixelKanji testKanji){
+		if (shortlist <= 0 || shortlist >= kanjiInfoMap.size()){
+			return kanjiInfoMap.values();
+		}
 
+		//rank the classes on 25x25 cells
+		final short[] coarse = testKanji.toPyramid().coarse;
+		final HashMap<Character, Double> coarseDistance = new HashMap<Character, Double>();
+		for (Entry<Character, double[]> entry : coarseAverages.entrySet()){
+			double sum = 0;
+			for (int i = 0; i < coarse.length; i++){
+				sum += Math.abs(coarse[i] - entry.getValue()[i]);
+			}
+			coarseDistance.put(entry.getKey(), sum);
 		}
+		ArrayList<PixelKanji> ranked = new ArrayList<PixelKanji>(kanjiInfoMap.values());
+		Collections.sort(ranked, new Comparator<PixelKanji>(){
+			public int compare(PixelKanji k1, PixelKanji k2){
+				return Double.compare(coarseDistance.get(k1.label), coarseDistance.get(k2.label));
+			}
+		});
+		return ranked.subList(0, shortlist);
 	}
 
 }
\ No newline at end of file
@@ -19,12 +19,15 @@ import java.io.*;
 
 import classifierInterfaces.*;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Set;
 
 import kanjiClasses.*;
+import utils.RasterCache;
+import utils.TransformCache;
 
 
 public class PixelKnn implements KNNInterface{
@@ -32,7 +35,18 @@ public class PixelKnn implements KNNInterface{
 	int maxDistance = Integer.MAX_VALUE;
 	int current;
 	int kNearest;
+	//how many candidates are compared at full resolution (0 compares them all)
+	int shortlist;
+	//whether kanjis are compared by chamfer distance instead of Hamming distance
+	boolean chamfer;
+	//whether the training kanjis are kept as ink runs instead of rasters (see PixelKanji.pinSparse)
+	boolean sparse;
 	PixelKanji[] VectorSpace;
+	//the training kanjis' distance transforms, for chamfer distances
+	TransformCache transforms = new TransformCache(TransformCache.DEFAULT_CAPACITY);
+	//the vector space sorted by ink count, with every kanji's InkStats (see index)
+	PixelKanji[] byInk;
+	int[] inks;
 
 	//correct, incorrect
 	public int[] stats = new int[2];
@@ -41,8 +55,29 @@ public class PixelKnn implements KNNInterface{
 
 	//constructor initializes new vector space and k-nearest neighbors k value
 	public PixelKnn(int k){
+		this(k, 0);
+	}
+
+	//ranks candidates on coarse ink counts first and only compares the best shortlist of them pixel by pixel
+	public PixelKnn(int k, int shortlist){
+		this(k, shortlist, false);
+	}
+
+	//compares kanjis by how far their strokes are from each other's (see chamferDistance), which forgives small shifts
+	public PixelKnn(int k, int shortlist, boolean chamfer){
+		this(k, shortlist, chamfer, false);
+	}
+
+	//keeps the training set as ink runs, about a tenth of the memory of rasters, for training sets too large to hold otherwise
+	public PixelKnn(int k, int shortlist, boolean chamfer, boolean sparse){
+		if (chamfer && sparse){
+			throw new IllegalArgumentException("chamfer distances need every training kanji's raster, so they cannot be sparse");
+		}
 		//how many data points do we look at to determine a new point's classification?
 		kNearest = k;
+		this.shortlist = shortlist;
+		this.chamfer = chamfer;
+		this.sparse = sparse;
 	}
 
 
@@ -91,22 +126,12 @@ public class PixelKnn implements KNNInterface{
 	 * 2. Add the squared difference for each pixel
 	 * 3. Reduce by 1/numpixels
 	 * 
+	 * @note for binary pixels the summed difference is the Hamming distance of the rasters, so it is counted 64 pixels at a time
+	 * @note an image that cannot be binarized is compared through its DataBuffer, as in fastDistance
 	 */
 
 	public int distance(PixelKanji unknownKanji, PixelKanji testKanji){
-
-		int sum = 0;
-		int row = 0;
-		int col = 0;
-
-		//for each pixel, add their squared difference
-		for (row = 0; row < unknownKanji.toPixels().length; row++) {
-			for (col = 0; col < unknownKanji.toPixels()[0].length; col++) {
-				sum -= Math.abs(unknownKanji.toPixels()[row][col] - testKanji.toPixels()[row][col]);
-			}
-		}
-
-		return sum;
+		return -fastDistance(unknownKanji, testKanji);
 	}
 
 	/** 
@@ -117,13 +142,43 @@ public class PixelKnn implements KNNInterface{
 	 * @return double distance
 	 * 
 	 * @pseudocode:
-	 * 1. check image size
-	 * 2. Add the squared difference for each pixel
-	 * 3. Reduce by 1/numpixels
+	 * 1. XOR the packed rasters, 64 pixels per word
+	 * 2. Count the mismatched bits
 	 * 
+	 * @note the DataBuffer comparison is only used when an image cannot be binarized
+	 * @note a sparse training kanji is compared run by run (see SparseRaster.hamming), without expanding it
 	 */
 
 	public int fastDistance (PixelKanji unknownKanji, PixelKanji testKanji){
+		return fastDistance(unknownKanji, null, testKanji);
+	}
+
+	/** 
+	 * fastdistance - 
+	 * finds the distance between two kanjis, using the unknown kanji's runs when the training kanji is sparse
+	 * 
+	 * @param PixelKanji unknownKanji, SparseRaster unknownSparse (its runs, or null), PixelKanji testKanji
+	 * @return int distance
+	 * 
+	 * @note classify encodes the unknown kanji once per query in sparse mode, so each comparison walks the runs of both
+	 */
+
+	int fastDistance (PixelKanji unknownKanji, SparseRaster unknownSparse, PixelKanji testKanji){
+
+		//two sparse kanjis differ by the mismatched pixels of their runs
+		if (testKanji.sparse != null && unknownSparse != null){
+			return unknownSparse.hamming(testKanji.sparse);
+		}
+
+		//kanjis differ by the number of mismatched bits
+		BinaryRaster unknownRaster = unknownKanji.toRaster();
+		if (testKanji.sparse != null && unknownRaster != null){
+			return testKanji.sparse.hamming(unknownRaster);
+		}
+		BinaryRaster testRaster = testKanji.toRaster();
+		if (unknownRaster != null && testRaster != null){
+			return unknownRaster.hamming(testRaster);
+		}
 
 		int sum = 0;
 
@@ -142,6 +197,198 @@ public class PixelKnn implements KNNInterface{
 
 	}
 
+	/** 
+	 * chamferDistance - 
+	 * finds the distance between two kanjis by how far each one's ink is from the other's
+	 * 
+	 * @param PixelKanji unknownKanji, PixelKanji testKanji
+	 * @return int distance - the mean distance in hundredths of a pixel (see DistanceTransform.chamfer)
+	 * 
+	 * @note builds the unknown kanji's transform for this one comparison - classify builds it once per query instead
+	 */
+
+	public int chamferDistance(PixelKanji unknownKanji, PixelKanji testKanji){
+		BinaryRaster unknownRaster = unknownKanji.toRaster();
+		return chamferDistance(unknownKanji, unknownRaster == null ? null : new DistanceTransform(unknownRaster), testKanji);
+	}
+
+	/** 
+	 * chamferDistance - 
+	 * finds the distance between two kanjis by how far each one's ink is from the other's
+	 * 
+	 * @param PixelKanji unknownKanji, DistanceTransform unknownTransform (its transform, or null), PixelKanji testKanji
+	 * @return int distance - the mean distance in hundredths of a pixel (see DistanceTransform.chamfer)
+	 * 
+	 * @pseudocode:
+	 * 1. Get the training kanji's transform from this classifier's TransformCache
+	 * 2. Sum each transform under the other kanji's ink pixels
+	 * 
+	 * @note falls back to fastDistance when a kanji has no pixels
+	 */
+
+	public int chamferDistance(PixelKanji unknownKanji, DistanceTransform unknownTransform, PixelKanji testKanji){
+		DistanceTransform testTransform = transforms.get(testKanji);
+		if (unknownTransform == null || testTransform == null){
+			return fastDistance(unknownKanji, testKanji);
+		}
+		return DistanceTransform.chamfer(unknownKanji.toRaster(), unknownTransform, testKanji.toRaster(), testTransform);
+	}
+
+	//the distance kanjis are ranked by; unknownTransform is only used for chamfer distances, unknownSparse for sparse ones
+	int matchDistance(PixelKanji unknownKanji, DistanceTransform unknownTransform, SparseRaster unknownSparse, PixelKanji testKanji){
+		return chamfer ? chamferDistance(unknownKanji, unknownTransform, testKanji) : fastDistance(unknownKanji, unknownSparse, testKanji);
+	}
+
+	/** 
+	 * index - 
+	 * computes the InkStats of every kanji in the vector space and sorts them by ink count
+	 * 
+	 * @return false if some kanji has no pixels to measure, in which case nothing is indexed
+	 */
+	boolean index(){
+		ArrayList<PixelKanji> indexed = new ArrayList<PixelKanji>(VectorSpace.length);
+		for (PixelKanji k : VectorSpace){
+			if (k != null){
+				if (k.toInkStats() == null){
+					byInk = null;
+					inks = null;
+					return false;
+				}
+				indexed.add(k);
+			}
+		}
+		byInk = indexed.toArray(new PixelKanji[indexed.size()]);
+		Arrays.sort(byInk, new Comparator<PixelKanji>(){
+			public int compare(PixelKanji v1, PixelKanji v2){
+				return v1.inkStats.ink - v2.inkStats.ink;
+			}
+		});
+		inks = new int[byInk.length];
+		for (int i = 0; i < byInk.length; i++){
+			inks[i] = byInk[i].inkStats.ink;
+		}
+		return true;
+	}
+
+	/** 
+	 * prunedDistances - 
+	 * finds the distance to every kanji that could be among the k nearest, skipping the rest
+	 * 
+	 * @param PixelKanji unknownKanji
+	 * @param SparseRaster unknownSparse - its runs, for a sparse training set, or null
+	 * @param int knear
+	 * @return false if the vector space cannot be indexed, so the distances were not computed
+	 * 
+	 * @pseudocode:
+	 * 1. Start every kanji at the maximum distance
+	 * 2. Visit the kanjis in order of their difference in ink count from the unknown kanji
+	 * 3. Stop once the ink difference alone is more than the k-th best distance
+	 * 4. Skip kanjis whose row or column histograms are already too different, compare the rest
+	 * 
+	 * @note the k nearest are the same as with an exhaustive search - only kanjis that cannot be among them are skipped
+	 */
+	boolean prunedDistances(PixelKanji unknownKanji, SparseRaster unknownSparse, int knear){
+		if ((byInk == null || byInk.length != VectorSpace.length) && !index()){
+			return false;
+		}
+		InkStats query = unknownKanji.toInkStats();
+		if (query == null){
+			return false;
+		}
+
+		//Step 1. out of reach
+		for (PixelKanji k : byInk){
+			k.distance = maxDistance;
+		}
+		//the k best distances so far, in order
+		int[] best = new int[Math.max(1, knear)];
+		Arrays.fill(best, maxDistance);
+		int last = best.length - 1;
+
+		//Step 2. walk out from the unknown kanji's ink count in both directions
+		int hi = Arrays.binarySearch(inks, query.ink);
+		if (hi < 0){
+			hi = -hi - 1;
+		}
+		while (hi > 0 && inks[hi - 1] == query.ink){
+			hi--;
+		}
+		int lo = hi - 1;
+		while (lo >= 0 || hi < byInk.length){
+			int below = lo >= 0 ? query.ink - inks[lo] : maxDistance;
+			int above = hi < byInk.length ? inks[hi] - query.ink : maxDistance;
+			int j = below <= above ? lo-- : hi++;
+
+			//Step 3. everything left differs more in ink alone
+			if (Math.min(below, above) > best[last]){
+				break;
+			}
+
+			//Step 4. histograms, then pixels
+			PixelKanji candidate = byInk[j];
+			if (query.lowerBound(candidate.inkStats, best[last]) > best[last]){
+				continue;
+			}
+			candidate.distance = fastDistance(unknownKanji, unknownSparse, candidate);
+			if (candidate.distance < best[last]){
+				int b = last;
+				while (b > 0 && best[b - 1] > candidate.distance){
+					best[b] = best[b - 1];
+					b--;
+				}
+				best[b] = candidate.distance;
+			}
+		}
+		return true;
+	}
+
+	/** 
+	 * shortlistDistances - 
+	 * finds the distance to the most promising kanjis, coarse to fine
+	 * 
+	 * @param PixelKanji unknownKanji
+	 * @param DistanceTransform unknownTransform - its transform, for chamfer distances
+	 * @param SparseRaster unknownSparse - its runs, for a sparse training set, or null
+	 * 
+	 * @pseudocode:
+	 * 1. Rank every kanji by its 25x25 ink count distance
+	 * 2. Re-rank the best 4 * shortlist by their 100x100 ink count distance
+	 * 3. Compute the full distance of the best shortlist; every other kanji is left at the maximum distance
+	 * 
+	 * @note the coarse distances are lower bounds of the full distance (see RasterPyramid)
+	 */
+	void shortlistDistances(PixelKanji unknownKanji, DistanceTransform unknownTransform, SparseRaster unknownSparse){
+		RasterPyramid query = unknownKanji.toPyramid();
+
+		//Step 1. coarse rank - each key is (distance, index), so sorting the keys sorts the kanjis
+		long[] ranked = new long[VectorSpace.length];
+		int candidates = 0;
+		for (int i = 0; i < VectorSpace.length; i++){
+			if (VectorSpace[i] != null){
+				VectorSpace[i].distance = maxDistance;
+				RasterPyramid pyramid = VectorSpace[i].toPyramid();
+				if (query != null && pyramid != null){
+					ranked[candidates++] = ((long) query.coarseDistance(pyramid) << 32) | i;
+				}
+			}
+		}
+		Arrays.sort(ranked, 0, candidates);
+
+		//Step 2. medium re-rank
+		int survivors = Math.min(candidates, shortlist * 4);
+		for (int j = 0; j < survivors; j++){
+			int i = (int) ranked[j];
+			ranked[j] = ((long) query.mediumDistance(VectorSpace[i].pyramid) << 32) | i;
+		}
+		Arrays.sort(ranked, 0, survivors);
+
+		//Step 3. full resolution
+		for (int j = 0; j < Math.min(survivors, shortlist); j++){
+			int i = (int) ranked[j];
+			VectorSpace[i].distance = matchDistance(unknownKanji, unknownTransform, unknownSparse, VectorSpace[i]);
+		}
+	}
+
 	/** 
 	 * classify - 
 	 * labels a DataPoint based on the labels of the k-nearest neighbors of a vector
@@ -164,34 +411,54 @@ public class PixelKnn implements KNNInterface{
 
 		//process
 
-		for (int i = 0; i < VectorSpace.length; i++){
-			if (VectorSpace[i] != null){
-
-				//compute the distance from the test kanji
-				VectorSpace[i].distance = fastDistance(unknownKanji, VectorSpace[i]);
+		//the query's transform is built once here and dropped with it, not kept on the kanji
+		DistanceTransform unknownTransform = null;
+		if (chamfer){
+			BinaryRaster unknownRaster = unknownKanji.toRaster();
+			if (unknownRaster != null){
+				unknownTransform = new DistanceTransform(unknownRaster);
+			}
+		}
+		//likewise its runs, so its ink is counted once rather than once per training kanji
+		SparseRaster unknownSparse = null;
+		if (sparse){
+			BinaryRaster unknownRaster = unknownKanji.toRaster();
+			if (unknownRaster != null){
+				unknownSparse = new SparseRaster(unknownRaster);
+			}
+		}
 
-				//sort the vectors by distance
-				Arrays.sort(this.VectorSpace, new Comparator<PixelKanji>(){
+		if (shortlist > 0 && shortlist < VectorSpace.length){
+			shortlistDistances(unknownKanji, unknownTransform, unknownSparse);
+		}else if (chamfer || !prunedDistances(unknownKanji, unknownSparse, knear)){
+			//the ink bounds only hold for Hamming distances, so chamfer distances are all computed
+			for (int i = 0; i < VectorSpace.length; i++){
+				if (VectorSpace[i] != null){
 
-					public int compare(PixelKanji v1, PixelKanji v2) {
+					//compute the distance from the test kanji
+					VectorSpace[i].distance = matchDistance(unknownKanji, unknownTransform, unknownSparse, VectorSpace[i]);
+				}
+			}
+		}
 
-						if (v1 == null || v2 == null){
-							return 0;
-						}
+		//sort the vectors by distance, once every distance is known
+		Arrays.sort(this.VectorSpace, new Comparator<PixelKanji>(){
 
-						if (v1.distance > v2.distance){
-							return 1;
-						}
-						else if (v1.distance < v2.distance){
-							return -1;
-						}
-						else {return 0;}
-					}
-				});			
+			public int compare(PixelKanji v1, PixelKanji v2) {
 
+				if (v1 == null || v2 == null){
+					return 0;
+				}
 
+				if (v1.distance > v2.distance){
+					return 1;
+				}
+				else if (v1.distance < v2.distance){
+					return -1;
+				}
+				else {return 0;}
 			}
-		}
+		});
 
 		//count the number of each label for the first k distance vectors
 
@@ -261,7 +528,7 @@ public class PixelKnn implements KNNInterface{
 	 * 
 	 * @param test - the kanji to classify
 	 * @param train - the kanji to use in the distribution
-	 * @param fileType
+	 * @param fileType - ".jpg", ".png", or ".pot" to rasterize stroke data
 	 * 
 	 * @pseudocode:
 	 * 1.add each kanji to the vectorspace
@@ -270,37 +537,37 @@ public class PixelKnn implements KNNInterface{
 	 */
 	public int test(File test, File train, String fileType){
 
-		//compute the size of the vectorspace
-		int i = 0;
-		for (final File fileEntry : train.listFiles()) {
-			if (fileEntry.getName().endsWith(fileType)){
-				i++;
-			}
+		//train and test may be image folders, .pot folders or raster archives
+		ArrayList<PixelKanji> training = PixelKanji.getKanjis(train, fileType);
+		//every query scans the whole training set, which a cache smaller than the set would evict before it comes round again
+		if (sparse){
+			System.out.println("sparse training set: " + (PixelKanji.pinSparse(training) >> 10) + " KB");
+		}else{
+			PixelKanji.pin(training);
 		}
 
-		VectorSpace = new PixelKanji[i];
+		//the kanjis being replaced no longer need their transforms
+		transforms.clear();
+		VectorSpace = new PixelKanji[training.size()];
 		current = 0;
 
 		//train all test kanji
-		for (final File fileEntry : train.listFiles()) {
-			if (fileEntry.getName().endsWith(fileType)){
-				train(new PixelKanji(fileEntry.getAbsolutePath()));
-				current++;
-			}
+		for (PixelKanji k : training){
+			train(k);
+			current++;
+		}
+		if (!chamfer){
+			index();
 		}
-
-		PixelKanji ki = new PixelKanji(test.listFiles()[0].getAbsolutePath());
-		System.out.println(ki.label);
 
 		//testing
 
-		for (final File fileEntry : test.listFiles()) {
-			if (fileEntry.getName().endsWith(fileType)){
-				classify(VectorSpace, kNearest, new PixelKanji(fileEntry.getAbsolutePath()));
-			}
+		for (PixelKanji k : PixelKanji.getKanjis(test, fileType)){
+			classify(VectorSpace, kNearest, k);
 		}	
 
 		System.out.println("correct: " + stats[0] + " incorrect: " + stats[1] + " percent" + ((double)stats[0] / ((double)stats[1] + (double)stats[0])));
+		System.out.println(RasterCache.shared());
 		return (int)stats[0];
 	}
 	
@@ -16,6 +16,7 @@ package pixelLevelClassifiers;
  */
 
 import java.io.File;
+import java.util.ArrayList;
 
 import classifierInterfaces.MultivariateWEKA;
 
@@ -52,18 +53,17 @@ public class PixelMultivariateGaussian implements MultivariateWEKA{
 		double[]        vals;
 		int width = 400;
 		int height = 400;
-		File folder = new File(path);
+		//the path may be an image folder, a .pot folder or a raster archive
+		ArrayList<PixelKanji> kanjis = PixelKanji.getKanjis(new File(path), fileType);
 
 		// 1. set up attributes
 		atts = new FastVector();
 
 		// - nominal
 		attVals = new FastVector();
-		for (final File fileEntry : folder.listFiles()) {
-			if (fileEntry.getName().endsWith(fileType)){
-				if (!attVals.contains("" + fileEntry.getName().substring(0,1))){
-					attVals.addElement("" + fileEntry.getName().substring(0,1));
-				}
+		for (PixelKanji kanji : kanjis) {
+			if (!attVals.contains("" + kanji.label)){
+				attVals.addElement("" + kanji.label);
 			}
 		}
 
@@ -84,28 +84,25 @@ public class PixelMultivariateGaussian implements MultivariateWEKA{
 
 		//3. Add Instances in chunks
 
-		for (final File fileEntry : folder.listFiles()) {
-			if (fileEntry.getName().endsWith(fileType)){
-				PixelKanji kanji = new PixelKanji(fileEntry.getAbsolutePath());
-				// 3. fill with data
-				//create the value array
-				vals = new double[data.numAttributes()];
-				//add the label to values
-				vals[0] = attVals.indexOf("" + kanji.label);
-			
-				//loop through pixels, adding them to the values Attribute
-				i = 1;
-				int[][] pixels = kanji.toPixels();
-				for (int row = 0; row < height; row++){
-					for (int col = 0; col < width; col++){
-						vals[i++] = pixels[row][col];
-					}
+		for (PixelKanji kanji : kanjis) {
+			// 3. fill with data
+			//create the value array
+			vals = new double[data.numAttributes()];
+			//add the label to values
+			vals[0] = attVals.indexOf("" + kanji.label);
+		
+			//loop through pixels, adding them to the values Attribute
+			i = 1;
+			int[][] pixels = kanji.toPixels();
+			for (int row = 0; row < height; row++){
+				for (int col = 0; col < width; col++){
+					vals[i++] = pixels[row][col];
 				}
+			}
 
 
-				//add the variables to the instance
-				data.add(new SparseInstance(1.0, vals));
-			}
+			//add the variables to the instance
+			data.add(new SparseInstance(1.0, vals));
 
 		}
 		return data;
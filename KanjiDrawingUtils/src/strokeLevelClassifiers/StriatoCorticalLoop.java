@@ -24,6 +24,7 @@ import java.util.Queue;
 import kanjiClasses.*;
 import trees.CSLTree;
 import trees.CSLTree.CLSNode;
+import utils.CorpusLoader;
 
 
 public class StriatoCorticalLoop {
@@ -100,23 +101,21 @@ public class StriatoCorticalLoop {
 
 
 		//training
-		for (final File fileEntry : train.listFiles()) {
-			if (fileEntry.getName().endsWith(fileType)){
-				for (StrokeKanji kanji : StrokeKanji.getKanjis(fileEntry, fileType)){
-					if (kanji != null){
-						kanji.distances = kanji.distanceFromCenter();
-						for (int k = 0; k < 30; k++){
-							if (kanji.angles[k] < minangle[k]){minangle[k] = kanji.angles[k];} 
-							if (kanji.angles[k] > maxangle[k]){maxangle[k] = kanji.angles[k];} 
-							if (kanji.lengths[k] < minangle[k]){minlengths[k] = kanji.lengths[k];} 
-							if (kanji.lengths[k] > maxangle[k]){maxlengths[k] = kanji.lengths[k];} 
-							if (kanji.distances[k*2] < mindistances[k*2]){mindistances[k*2] = kanji.distances[k*2];} 
-							if (kanji.distances[k*2] > maxdistances[k*2]){maxdistances[k*2] = kanji.distances[k*2];} 
-							if (kanji.distances[k*2 + 1] < mindistances[k*2 + 1]){mindistances[k*2 + 1] = kanji.distances[k*2 + 1];} 
-							if (kanji.distances[k*2 + 1] > maxdistances[k*2 + 1]){maxdistances[k*2 + 1] = kanji.distances[k*2 + 1];} 
-							if (k < 29 && kanji.moves[k] < minmoves[k]){minmoves[k] = kanji.moves[k]; }
-							if (k < 29 && kanji.moves[k] > maxmoves[k]){maxmoves[k] = kanji.moves[k]; }
-						}
+		for (final File fileEntry : CorpusLoader.listFiles(train, fileType)) {
+			for (StrokeKanji kanji : StrokeKanji.readKanjis(fileEntry, fileType)){
+				if (kanji != null){
+					kanji.distances = kanji.distanceFromCenter();
+					for (int k = 0; k < 30; k++){
+						if (kanji.angles[k] < minangle[k]){minangle[k] = kanji.angles[k];} 
+						if (kanji.angles[k] > maxangle[k]){maxangle[k] = kanji.angles[k];} 
+						if (kanji.lengths[k] < minangle[k]){minlengths[k] = kanji.lengths[k];} 
+						if (kanji.lengths[k] > maxangle[k]){maxlengths[k] = kanji.lengths[k];} 
+						if (kanji.distances[k*2] < mindistances[k*2]){mindistances[k*2] = kanji.distances[k*2];} 
+						if (kanji.distances[k*2] > maxdistances[k*2]){maxdistances[k*2] = kanji.distances[k*2];} 
+						if (kanji.distances[k*2 + 1] < mindistances[k*2 + 1]){mindistances[k*2 + 1] = kanji.distances[k*2 + 1];} 
+						if (kanji.distances[k*2 + 1] > maxdistances[k*2 + 1]){maxdistances[k*2 + 1] = kanji.distances[k*2 + 1];} 
+						if (k < 29 && kanji.moves[k] < minmoves[k]){minmoves[k] = kanji.moves[k]; }
+						if (k < 29 && kanji.moves[k] > maxmoves[k]){maxmoves[k] = kanji.moves[k]; }
 					}
 				}
 			}
@@ -312,15 +311,9 @@ public class StriatoCorticalLoop {
 			T.getRoot().children.clear();
 			T.depth = 0;
 			
-			//training
-			for (final File fileEntry : train.listFiles()) {
-				if (fileEntry.getName().endsWith(fileType)){
-					for (StrokeKanji kanji : StrokeKanji.getKanjis(fileEntry, fileType)){
-						if (kanji != null){
-							T.getRoot().getData().add(kanji);
-						}
-					}
-				}
+			//training - the files are decoded in parallel
+			for (StrokeKanji kanji : StrokeKanji.loadKanjis(train, fileType)){
+				T.getRoot().getData().add(kanji);
 			}
 			
 			//classification
@@ -343,15 +336,13 @@ public class StriatoCorticalLoop {
 			
 			//testing
 			ArrayList<StrokeKanji> testKanjis = new ArrayList<StrokeKanji>();
-			for (final File testFileEntry : test.listFiles()) {
-				if (testFileEntry.getName().endsWith(fileType)){
-					for (StrokeKanji kanji : StrokeKanji.getKanjis(testFileEntry, fileType)){
-						if (kanji != null){
-							testKanjis.add(kanji);
-						}
+			for (final File testFileEntry : CorpusLoader.listFiles(test, fileType)) {
+				for (StrokeKanji kanji : StrokeKanji.readKanjis(testFileEntry, fileType)){
+					if (kanji != null){
+						testKanjis.add(kanji);
 					}
-					classify(T, numClusters, testKanjis);
-				}	
+				}
+				classify(T, numClusters, testKanjis);
 			}
 			
 		System.out.println("num"+ numClusters + " " + numClusters * T.depth + "\n" + T);
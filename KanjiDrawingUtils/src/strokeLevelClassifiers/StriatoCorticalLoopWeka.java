@@ -31,6 +31,7 @@ import weka.core.FastVector;
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.SparseInstance;
+import utils.CorpusLoader;
 
 
 public class StriatoCorticalLoopWeka {
@@ -370,15 +371,9 @@ public class StriatoCorticalLoopWeka {
 		T.getRoot().children.clear();
 		T.depth = 0;
 		
-		//training
-		for (final File fileEntry : train.listFiles()) {
-			if (fileEntry.getName().endsWith(fileType)){
-				for (StrokeKanji kanji : StrokeKanji.getKanjis(fileEntry, fileType)){
-					if (kanji != null){
-						T.getRoot().getData().add(kanji);
-					}
-				}
-			}
+		//training - the files are decoded in parallel
+		for (StrokeKanji kanji : StrokeKanji.loadKanjis(train, fileType)){
+			T.getRoot().getData().add(kanji);
 		}
 		
 		//classification
@@ -401,21 +396,19 @@ public class StriatoCorticalLoopWeka {
 		
 		//testing
 		ArrayList<StrokeKanji> testKanjis = new ArrayList<StrokeKanji>();
-		for (final File testFileEntry : test.listFiles()) {
-			if (testFileEntry.getName().endsWith(fileType)){
-				for (StrokeKanji kanji : StrokeKanji.getKanjis(testFileEntry, fileType)){
-					if (kanji != null){
-						testKanjis.add(kanji);
-					}
+		for (final File testFileEntry : CorpusLoader.listFiles(test, fileType)) {
+			for (StrokeKanji kanji : StrokeKanji.readKanjis(testFileEntry, fileType)){
+				if (kanji != null){
+					testKanjis.add(kanji);
 				}
-				//w/o hidden weights
-				classify(T, 2, testKanjis);
-				//w/ hidden weights
-				System.out.println("---------RUNNING SLC HIDDEN WEIGHTS---------");
-				classify(T, 2, testKanjis, new int[]{0,0,0,0,0}, 0, new int[]{0,0,0,0,0}, 1000.0);
-				String weights = ""; for (int weight : bestScoreWeights){weights += weight + ", ";}weights = weights.substring(0,weights.length()-2);
-				System.out.println( "best: " + bestScore + " bestWeights: " + weights );
-			}	
+			}
+			//w/o hidden weights
+			classify(T, 2, testKanjis);
+			//w/ hidden weights
+			System.out.println("---------RUNNING SLC HIDDEN WEIGHTS---------");
+			classify(T, 2, testKanjis, new int[]{0,0,0,0,0}, 0, new int[]{0,0,0,0,0}, 1000.0);
+			String weights = ""; for (int weight : bestScoreWeights){weights += weight + ", ";}weights = weights.substring(0,weights.length()-2);
+			System.out.println( "best: " + bestScore + " bestWeights: " + weights );
 		System.out.println("num"+ numClusters + " " + numClusters * T.depth + "\n" + T);
 		}
 	}
@@ -25,11 +25,14 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
 
 import classifierInterfaces.GaussianInterface;
 import kanjiClasses.Kanji;
 import kanjiClasses.StrokeKanji;
+import utils.CorpusLoader;
+import utils.DatasetCatalog;
 
 
 
@@ -83,34 +86,28 @@ public class StrokeGaussianHiddenWeights implements GaussianInterface{
 		//training
 		
 		// open the last entry's file. Record the number of files.
-		int numfiles = 0;
-		File fileEntry = train.listFiles()[0];
-		while (numfiles < train.listFiles().length){
-			if (train.listFiles()[numfiles].getName().endsWith(fileType)){
-				fileEntry = train.listFiles()[numfiles++];
-			}else{
-				numfiles++;
-			}
-		}
+		DatasetCatalog catalog = DatasetCatalog.load(train);
+		List<File> trainFiles = catalog.files(fileType);
+		int numfiles = catalog.size();
+		File fileEntry = trainFiles.get(trainFiles.size() - 1);
+		//listed once, not once per label
+		List<File> trainSources = CorpusLoader.listFiles(train, fileType);
 		
 		allKanjiLengths = new int[numfiles][30];
 		allKanjiAngles = new int[numfiles][30];
 		int[][] allKanjiDistances =  new int[60][60];
 		allKanjiMoves = new int[numfiles][29];
 	
-		for (StrokeKanji kanji : StrokeKanji.getKanjis(fileEntry, fileType)){
+		for (StrokeKanji kanji : StrokeKanji.readKanjis(fileEntry, fileType)){
 			//if I haven't seen this label before...
 			if (!kanjiInfoMap.containsKey(kanji.label)){
 				//loop through all instances 
-				for (final File innerFileEntry : train.listFiles()) {
-					if (innerFileEntry.getName().endsWith(fileType)){
-						for (StrokeKanji innerkanji : StrokeKanji.getKanjis(innerFileEntry, fileType)){
-							if (innerkanji != null && innerkanji.label.equals(kanji.label)){
-								//and update the distribution
-								updateDistribution(innerkanji);
-							}
+				for (final File innerFileEntry : trainSources) {
+					//only this label's samples are decoded
+					for (StrokeKanji innerkanji : StrokeKanji.readKanjis(innerFileEntry, fileType, kanji.label)){
+						//and update the distribution
+						updateDistribution(innerkanji);
 	
-						}
 					}
 				}
 				//get the average and standard deviation
@@ -147,39 +144,38 @@ public class StrokeGaussianHiddenWeights implements GaussianInterface{
 	
 		char guess2 = 0;
 	
-		for (final File innerFileEntry : test.listFiles()) {
-			if (innerFileEntry.getName().endsWith(fileType)){
-				for (StrokeKanji kanji : StrokeKanji.getKanjis(innerFileEntry, fileType)){
+		for (final File innerFileEntry : CorpusLoader.listFiles(test, fileType)) {
+			for (StrokeKanji kanji : StrokeKanji.readKanjis(innerFileEntry, fileType)){
 	
-					//get the kanji with the lowest zscore from the map
-					Iterator<Entry<Character, StrokeKanji>> iter = kanjiInfoMap.entrySet().iterator();
-					lowestZ = Integer.MAX_VALUE;
-					lowestZDistance = Integer.MAX_VALUE;
-					while (iter.hasNext()){
-						StrokeKanji ki = kanjiInfoMap.get(iter.next().getKey());
-						
-						//get scores
-						double distance = ki.distance(kanji, weightLengths, weightAngles, weightDistances, weightMoves, weightStrokes);
-						double zScore = ki.getZScore(kanji, weightLengths, weightAngles, weightDistances, weightMoves);
+				//get the kanji with the lowest zscore from the map
+				Iterator<Entry<Character, StrokeKanji>> iter = kanjiInfoMap.entrySet().iterator();
+				lowestZ = Integer.MAX_VALUE;
+				lowestZDistance = Integer.MAX_VALUE;
+				while (iter.hasNext()){
+					StrokeKanji ki = kanjiInfoMap.get(iter.next().getKey());
+					
+					//get scores
+					double distance = ki.distance(kanji, weightLengths, weightAngles, weightDistances, weightMoves, weightStrokes);
+					double zScore = ki.getZScore(kanji, weightLengths, weightAngles, weightDistances, weightMoves);
 	
-						//keep the best
-						if (zScore < lowestZ) { 
-							guess1 = ki.label;
-							lowestZ = zScore;
-						}
-						if (distance < lowestZDistance) {
-							guess2 = ki.label;
-							lowestZDistance = distance;
-						}
+					//keep the best
+					if (zScore < lowestZ) { 
+						guess1 = ki.label;
+						lowestZ = zScore;
+					}
+					if (distance < lowestZDistance) {
+						guess2 = ki.label;
+						lowestZDistance = distance;
 					}
+				}
 	
-					if (guess1 == kanji.label){
-						zScoreStats[0]++;
-					}else{zScoreStats[1]++;}
+				if (guess1 == kanji.label){
+					zScoreStats[0]++;
+				}else{zScoreStats[1]++;}
 	
-					if (guess2 == kanji.label){
-						distanceStats[0]++;
-					}else{distanceStats[1]++;}
+				if (guess2 == kanji.label){
+					distanceStats[0]++;
+				}else{distanceStats[1]++;}
 	
 //	
 //					System.out.println("guessZsco: " + guess1 + " actual: " + kanji.label+ " correct: " + zScoreStats[0] + 
@@ -188,8 +184,7 @@ public class StrokeGaussianHiddenWeights implements GaussianInterface{
 //					System.out.println("guessDist: " + guess2 + " actual: " + kanji.label + " correct: " + distanceStats[0] + 
 //							" incorrect: " + distanceStats[1] + " percentage: "  + ((double)distanceStats[0]/(double)(distanceStats[0]+distanceStats[1])));
 //	
-				}		
-			}
+			}		
 		}
 		int result = Math.max(distanceStats[0], zScoreStats[0]);
 		memo.put( weightLengths + " " + weightAngles + " " + weightDistances + " " + weightMoves, result);
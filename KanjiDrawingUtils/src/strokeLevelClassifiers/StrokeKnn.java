@@ -26,6 +26,7 @@ import java.util.Set;
 import classifierInterfaces.KNNInterface;
 
 import kanjiClasses.*;
+import utils.CorpusLoader;
 
 
 public class StrokeKnn implements KNNInterface{
@@ -195,28 +196,19 @@ public class StrokeKnn implements KNNInterface{
 	public int test(File test, File train, String fileType) {
 
 
-		//training
-		for (final File fileEntry : train.listFiles()) {
-			if (fileEntry.getName().endsWith(fileType)){
-				System.out.println(fileEntry.toString());
-				for (StrokeKanji kanji : StrokeKanji.getKanjis(fileEntry, fileType)){
-					if (kanji != null){
-						train(kanji);
-					}
-				}
-			}
+		//training - the files are decoded in parallel
+		for (StrokeKanji kanji : StrokeKanji.loadKanjis(train, fileType)){
+			train(kanji);
 		}
 
 
 		//testing
-		for (final File testFileEntry : test.listFiles()) {
-			if (testFileEntry.getName().endsWith(fileType)){
-				for (StrokeKanji kanji : StrokeKanji.getKanjis(testFileEntry, fileType)){
-					if (kanji != null){
-						classify(vectorSpace, kNearest, kanji);
-					}
+		for (final File testFileEntry : CorpusLoader.listFiles(test, fileType)) {
+			for (StrokeKanji kanji : StrokeKanji.readKanjis(testFileEntry, fileType)){
+				if (kanji != null){
+					classify(vectorSpace, kNearest, kanji);
 				}
-			}	
+			}
 
 			System.out.println("correct: " + stats[0] + "incorrect: " + stats[1] + " percent " + ((double)stats[0] / ((double)stats[0] + (double)stats[1])));
 
@@ -25,6 +25,7 @@ import java.util.Set;
 
 import classifierInterfaces.KNNInterface;
 import kanjiClasses.*;
+import utils.CorpusLoader;
 
 
 
@@ -206,16 +207,9 @@ public class StrokeKnnHiddenWeights implements KNNInterface{
 	 * 
 	 */
 	public int test (File test, File train, String fileType) {
-		//training
-		for (final File fileEntry : train.listFiles()) {
-			if (fileEntry.getName().endsWith(fileType)){
-				System.out.println(fileEntry.toString());
-				for (StrokeKanji kanji : StrokeKanji.getKanjis(fileEntry, fileType)){
-					if (kanji != null){
-						train(kanji);
-					}
-				}
-			}
+		//training - the files are decoded in parallel
+		for (StrokeKanji kanji : StrokeKanji.loadKanjis(train, fileType)){
+			train(kanji);
 		}
 				
 		hiddenWeights(test, train, fileType, 3, 0, 0, 0, 0, 0, 0);
@@ -235,12 +229,10 @@ public class StrokeKnnHiddenWeights implements KNNInterface{
 		
 		//testing
 		stats = new int[2];
-		for (final File testFileEntry : test.listFiles()) {
-			if (testFileEntry.getName().endsWith(fileType)){
-				for (StrokeKanji kanji : StrokeKanji.getKanjis(testFileEntry, fileType)){
-					if (kanji != null){
-						classify(vectorSpace, kNearest, kanji, w1, w2, w3, w4, w5);
-					}
+		for (final File testFileEntry : CorpusLoader.listFiles(test, fileType)) {
+			for (StrokeKanji kanji : StrokeKanji.readKanjis(testFileEntry, fileType)){
+				if (kanji != null){
+					classify(vectorSpace, kNearest, kanji, w1, w2, w3, w4, w5);
 				}
 			}
 		}
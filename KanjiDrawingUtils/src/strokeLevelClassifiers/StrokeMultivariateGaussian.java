@@ -24,6 +24,7 @@ import weka.core.FastVector;
 import weka.core.Instances;
 import weka.core.SparseInstance;
 import classifierInterfaces.MultivariateWEKA;
+import utils.CorpusLoader;
 
 public class StrokeMultivariateGaussian implements MultivariateWEKA{
 
@@ -55,11 +56,7 @@ public class StrokeMultivariateGaussian implements MultivariateWEKA{
 
 		attVals = new FastVector();
 
-		File labelFile = folder.listFiles()[0];
-		int it = 0;
-		while (!labelFile.getName().endsWith(fileType)){
-			labelFile = folder.listFiles()[it++];
-		}
+		File labelFile = CorpusLoader.listFiles(folder, fileType).get(0);
 		
 		// - nominal
 		StrokeKanji[] kanjis = StrokeKanji.getKanjis(labelFile, fileType);
@@ -89,32 +86,29 @@ public class StrokeMultivariateGaussian implements MultivariateWEKA{
 		data = new Instances("Kanjis", atts, 0);
 
 
-		//3. Add Instances in chunks
-
-		for (final File fileEntry : folder.listFiles()) {
-			if (fileEntry.getName().endsWith(fileType))
-			for (StrokeKanji kanji : StrokeKanji.getKanjis(fileEntry, fileType)){
-				
-				// 3. fill with data
-
-				vals = new double[data.numAttributes()];
-				//add the label to values
-				vals[0] = attVals.indexOf("" + kanji.label);
+		//3. Add Instances in chunks - the files are decoded in parallel
 
-				//add the features to values
-				int j = 1;
-				for (int i = 0; i < 30; i++){
-					vals[j++] = kanji.lengths[i];
-					vals[j++] = kanji.angles[i];
-					vals[j++] = kanji.distances[i*2];
-					vals[j++] = kanji.distances[i*2 + 1];
-					if (i > 0){vals[j++] = kanji.moves[i];}
-					i++;
-				}
-
-				//add the variables to the instance
-				data.add(new SparseInstance(1.0, vals));
+		for (StrokeKanji kanji : StrokeKanji.loadKanjis(folder, fileType)){
+			
+			// 3. fill with data
+
+			vals = new double[data.numAttributes()];
+			//add the label to values
+			vals[0] = attVals.indexOf("" + kanji.label);
+
+			//add the features to values
+			int j = 1;
+			for (int i = 0; i < 30; i++){
+				vals[j++] = kanji.lengths[i];
+				vals[j++] = kanji.angles[i];
+				vals[j++] = kanji.distances[i*2];
+				vals[j++] = kanji.distances[i*2 + 1];
+				if (i > 0){vals[j++] = kanji.moves[i];}
+				i++;
 			}
+
+			//add the variables to the instance
+			data.add(new SparseInstance(1.0, vals));
 		}
 
 		return data;
@@ -0,0 +1,327 @@
+package utils;
+/**
+ * BuildLedger
+ *
+ * Remembers which source files derived data was made from, so only changed sources are converted again
+ *
+ * For every source the ledger keeps its size, modification time and content hash, plus the files
+ * that were made from it. A source is up to date when all of its outputs still exist and either its
+ * size and time are unchanged, or its time changed but its content hash did not (a copy or a touch).
+ * When a source is rebuilt, outputs it no longer makes are deleted, and when a source disappears
+ * its outputs are deleted with it - unless another source's entry still lists the same file.
+ *
+ * Ledger layout (UTF-8 text, one line per source):
+ * source \t size \t modification time \t md5 \t output \t output ...
+ *
+ * Usage:
+ *
+ * BuildLedger ledger = BuildLedger.open(new File(output, BuildLedger.EXTENSION));
+ * for (File source : sources){
+ *     if (!ledger.isCurrent(source)){
+ *         ledger.record(source, convert(source));
+ *     }
+ * }
+ * ledger.retain(folder, sources);
+ * ledger.save();
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+public class BuildLedger {
+
+	public static final String EXTENSION = ".ledger";
+
+	/**
+	 * Entry
+	 *
+	 * One source and what was made from it
+	 */
+	static class Entry {
+		long size;
+		long modified;
+		String hash;
+		ArrayList<String> outputs = new ArrayList<String>();
+	}
+
+	private File file;
+	// by absolute source path, in the order they were recorded
+	private LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>();
+	private boolean changed = false;
+
+	private BuildLedger(File file){
+		this.file = file;
+	}
+
+	/**
+	 * open
+	 *
+	 * @param ledger - the ledger file; it is created by the first save
+	 * @return BuildLedger
+	 */
+	public static BuildLedger open(File ledger){
+		BuildLedger bl = new BuildLedger(ledger);
+		if (ledger.isFile()){
+			try {
+				bl.read();
+			} catch (Exception e) {
+				//a damaged ledger only means everything is rebuilt once
+				System.out.println("ignoring ledger " + ledger + ": " + e.getMessage());
+				bl.entries.clear();
+			}
+		}
+		return bl;
+	}
+
+	/**
+	 * isCurrent
+	 *
+	 * @summary Checks whether a source's outputs are up to date
+	 *
+	 * @param source - a source file
+	 * @return true if the source was recorded, still has the same content, and all its outputs exist
+	 *
+	 * @pseudocode
+	 * 1. Look for the source and its outputs
+	 * 2. Trust an unchanged size and time
+	 * 3. Otherwise compare the content hash, remembering the new time if it matches
+	 */
+	public synchronized boolean isCurrent(File source){
+		//Step 1. recorded
+		Entry entry = entries.get(source.getAbsolutePath());
+		if (entry == null || !source.isFile()){
+			return false;
+		}
+		for (String output : entry.outputs){
+			if (!new File(output).exists()){
+				return false;
+			}
+		}
+
+		//Step 2. size and time
+		long size = source.length();
+		long modified = source.lastModified();
+		if (size != entry.size){
+			return false;
+		}
+		if (modified == entry.modified){
+			return true;
+		}
+
+		//Step 3. content
+		try {
+			if (hash(source).equals(entry.hash)){
+				entry.modified = modified;
+				changed = true;
+				return true;
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return false;
+	}
+
+	/**
+	 * record
+	 *
+	 * @summary Records the outputs just made from a source, deleting the ones it no longer makes
+	 *
+	 * @param source - the source file
+	 * @param outputs - every file made from it
+	 * @throws IOException if the source cannot be hashed
+	 */
+	public synchronized void record(File source, Collection<File> outputs) throws IOException{
+		Entry entry = new Entry();
+		entry.size = source.length();
+		entry.modified = source.lastModified();
+		entry.hash = hash(source);
+		for (File output : outputs){
+			entry.outputs.add(output.getAbsolutePath());
+		}
+
+		Entry previous = entries.put(source.getAbsolutePath(), entry);
+		if (previous != null){
+			HashSet<String> kept = new HashSet<String>(entry.outputs);
+			ArrayList<String> stale = new ArrayList<String>();
+			for (String output : previous.outputs){
+				if (!kept.contains(output)){
+					stale.add(output);
+				}
+			}
+			deleteStale(stale);
+		}
+		changed = true;
+	}
+
+	/**
+	 * retain
+	 *
+	 * @summary Forgets the sources of a folder that are gone, deleting their outputs
+	 *
+	 * @param folder - the source folder
+	 * @param sources - the sources it holds now
+	 * @return int - the number of sources forgotten
+	 */
+	public synchronized int retain(File folder, Collection<File> sources){
+		HashSet<String> keep = new HashSet<String>();
+		for (File source : sources){
+			keep.add(source.getAbsolutePath());
+		}
+		String prefix = folder.getAbsolutePath() + File.separator;
+
+		int removed = 0;
+		ArrayList<String> stale = new ArrayList<String>();
+		Iterator<String> it = entries.keySet().iterator();
+		while (it.hasNext()){
+			String source = it.next();
+			if (source.startsWith(prefix) && !keep.contains(source)){
+				stale.addAll(entries.get(source).outputs);
+				it.remove();
+				removed++;
+			}
+		}
+		if (removed > 0){
+			deleteStale(stale);
+			changed = true;
+		}
+		return removed;
+	}
+
+	/**
+	 * outputs
+	 *
+	 * @param source - a source file
+	 * @return the files last made from it, empty if it was never recorded
+	 */
+	public synchronized List<File> outputs(File source){
+		ArrayList<File> files = new ArrayList<File>();
+		Entry entry = entries.get(source.getAbsolutePath());
+		if (entry != null){
+			for (String output : entry.outputs){
+				files.add(new File(output));
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * save
+	 *
+	 * @summary Writes the ledger if anything changed since it was opened
+	 *
+	 * @note written to a temporary file first, so an interrupted save leaves the old ledger intact
+	 */
+	public synchronized void save(){
+		if (!changed){
+			return;
+		}
+		File temp = new File(file.getPath() + ".tmp");
+		try {
+			BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), "UTF-8"));
+			try {
+				for (String source : entries.keySet()){
+					Entry entry = entries.get(source);
+					bw.write(source + "\t" + entry.size + "\t" + entry.modified + "\t" + entry.hash);
+					for (String output : entry.outputs){
+						bw.write("\t" + output);
+					}
+					bw.write('\n');
+				}
+			} finally {
+				bw.close();
+			}
+			if (file.exists() && !file.delete() || !temp.renameTo(file)){
+				throw new IOException("could not replace " + file);
+			}
+			changed = false;
+		} catch (IOException e) {
+			System.out.println("could not write ledger " + file + ": " + e.getMessage());
+			temp.delete();
+		}
+	}
+
+	/**
+	 * hash
+	 *
+	 * @param source - a file
+	 * @return String - the md5 of its contents, in hex
+	 * @throws IOException
+	 */
+	public static String hash(File source) throws IOException{
+		MessageDigest md5;
+		try {
+			md5 = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		byte[] buffer = new byte[CorpusStreams.BUFFER];
+		InputStream in = new FileInputStream(source);
+		try {
+			int n;
+			while ((n = in.read(buffer)) > 0){
+				md5.update(buffer, 0, n);
+			}
+		} finally {
+			in.close();
+		}
+
+		StringBuilder sb = new StringBuilder(32);
+		for (byte b : md5.digest()){
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return sb.toString();
+	}
+
+	//deletes the outputs that no entry lists any more, since two sources can make the same file
+	private void deleteStale(List<String> outputs){
+		if (outputs.isEmpty()){
+			return;
+		}
+		HashSet<String> listed = new HashSet<String>();
+		for (Entry entry : entries.values()){
+			listed.addAll(entry.outputs);
+		}
+		for (String output : outputs){
+			if (!listed.contains(output)){
+				new File(output).delete();
+			}
+		}
+	}
+
+	private void read() throws IOException{
+		BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = br.readLine()) != null){
+				String[] fields = line.split("\t");
+				Entry entry = new Entry();
+				entry.size = Long.parseLong(fields[1]);
+				entry.modified = Long.parseLong(fields[2]);
+				entry.hash = fields[3];
+				for (int i = 4; i < fields.length; i++){
+					entry.outputs.add(fields[i]);
+				}
+				entries.put(fields[0], entry);
+			}
+		} finally {
+			br.close();
+		}
+	}
+
+}
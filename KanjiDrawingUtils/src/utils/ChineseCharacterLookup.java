@@ -22,9 +22,8 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.Charset;
-import java.util.List;
+import java.util.Collections;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringEscapeUtils;
 
 public class ChineseCharacterLookup{
@@ -43,6 +42,8 @@ public class ChineseCharacterLookup{
 	 * 2.Write each GBK character and hex equivalent to the file
 	 * 
 	 * @return
+	 * 
+	 * @note nothing is written if GBKhtml.txt has not changed since the table was last built (see BuildLedger)
 	 */
 	
 	
@@ -57,6 +58,12 @@ public class ChineseCharacterLookup{
 			// the file to write to
 			File output = new File(table);
 			
+			//skip the rebuild if the html is unchanged
+			BuildLedger ledger = BuildLedger.open(new File(table + BuildLedger.EXTENSION));
+			if (ledger.isCurrent(input) && ledger.outputs(input).contains(output.getAbsoluteFile())){
+				return null;
+			}
+			
 			// if file doesnt exists, then create it
 			if (!output.exists()) {
 				output.createNewFile();
@@ -108,6 +115,10 @@ public class ChineseCharacterLookup{
 			}
 			
 			bw.close();
+			
+			//remember what the table was built from
+			ledger.record(input, Collections.singletonList(output));
+			ledger.save();
 
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -127,31 +138,37 @@ public class ChineseCharacterLookup{
 	 * @throws IOException
 	 * 
 	 * @pseudocode
-	 * 1. Find the index of the query
-	 * 2. Return its match
+	 * 1. Parse the query
+	 * 2. Return its match from the shared GBKTable
 	 * 
+	 * @note lookups no longer read the table file - GBKTable loads it once per JVM
 	 */
 	
 	public String Lookup(String hex) throws IOException{
-		// read lines from the file
-        List<String> filestring = FileUtils.readLines(new File(table));  
-        
-        // find the character corresponding to the hex code
-        int index = (filestring.indexOf(hex) -1);
-        
-        // return the character if it exists
-        return index > 0 ? filestring.get(index) : null;
+		// parse the hex code
+		int code;
+		try {
+			code = Integer.parseInt(hex, 16);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		if (code < 0 || code > 0xffff){
+			return null;
+		}
+		
+		// find the character corresponding to the hex code
+		char kanji = GBKTable.toUnicode(code);
+		
+		// return the character if it exists
+		return kanji != 0 ? String.valueOf(kanji) : null;
 	}
 	
 	public String Lookup(Character kanji) throws IOException{
-		// read lines from the file
-        List<String> filestring = FileUtils.readLines(new File(table)); 
-        
-        // find the character corresponding to the hex code
-        int index = (filestring.indexOf(kanji)+1);
-        
-        // return the character if it exists
-        return index > 0 ? filestring.get(index) : null;
+		// find the hex code corresponding to the character
+		int code = GBKTable.toGBK(kanji);
+		
+		// return the hex code if it exists
+		return code != 0 ? Integer.toHexString(code) : null;
 	}
 
 	
@@ -17,7 +17,10 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
 
+import kanjiClasses.StrokeFeatures;
 import kanjiClasses.StrokeKanji;
 
 import org.apache.commons.io.FileUtils;
@@ -26,6 +29,9 @@ import org.apache.commons.io.FileUtils;
 public class ChineseOnlineHandwritingToJPG{
 
 	int filenum = 0;
+	// the .pot file being written and the sample within it, so every JPG gets its own name
+	String sourceName = "";
+	int sample = 0;
 	int position = 0;
 	SVGtoJPG jpgs = new SVGtoJPG();
 	int samplesize;
@@ -33,18 +39,17 @@ public class ChineseOnlineHandwritingToJPG{
 	int endtag;
 	int[] strokes;
 	StrokeKanji[] KanjiList;
-	ChineseCharacterLookup gbkl;
+
+	//the most ints a sample's points can take (a sample is at most 65535 bytes)
+	public static final int MAX_POINTS = 32768;
 
 	/**
 	 * ChineseOnlineHandwritingToJPG constructor
 	 * 
-	 * Prepares the Character Lookup Table
+	 * @note the Character Lookup Table is shared - GBKTable builds it the first time a label is looked up
 	 */
 
 	public ChineseOnlineHandwritingToJPG(){
-		//load GBK table for lookup
-		gbkl = new ChineseCharacterLookup();
-		gbkl.Decode();
 	}
 
 
@@ -54,44 +59,109 @@ public class ChineseOnlineHandwritingToJPG{
 	 * Reads each kanji from the Database Byte Buffer and stores information about it
 	 * 
 	 * @return an array of Kanji objects
+	 * 
+	 * @note the file is decoded in a single pass by PotReader, so it may also be a .pot.gz or .zip
 	 */
 
 	public StrokeKanji[] decodeAll(File file, boolean writeToFile){
-		//create a byte buffer from the file
-		try {
-			ByteBuffer bb = ByteBuffer.wrap(FileUtils.readFileToByteArray(file));
-			bb.order(ByteOrder.LITTLE_ENDIAN);
+		//decode each sample once, straight from the mapped file
+		ArrayList<StrokeKanji> kanjis = new ArrayList<StrokeKanji>();
+		for (StrokeKanji k : new PotReader(file, this)){
+			kanjis.add(k); //Records information about the Kanji
+		}
+		KanjiList = kanjis.toArray(new StrokeKanji[kanjis.size()]);
 
+		if (writeToFile){
+			writeJPGs(file);
+		}
 
-			int i = 0;
-			while (bb.remaining() > 0){
-				decodeToStrokes(bb);
-				i++;
-				//				System.out.println(KanjiList[i-1]);
-			}
-			
-			KanjiList = new StrokeKanji[i];
-			position = 0;
-			bb.rewind();
-			i = 0;
-			while (bb.remaining() > 0){
-				KanjiList[i++] = decodeToStrokes(bb); //Records information about the Kanji
-
-				//				System.out.println(KanjiList[i-1]);
-			}
+		return KanjiList;
+	}
 
-			if (writeToFile){
-				bb.rewind();
-				position = 0;
-				while (bb.remaining() > 0){
-					decodeToJPG(bb); //Writes JPG files
+	/**
+	 * writeJPGs
+	 * 
+	 * Writes a JPG for every kanji in a .pot file
+	 * 
+	 * @param file - a .pot file
+	 * @return the JPG files written
+	 */
+	public List<File> writeJPGs(File file){
+		ArrayList<File> written = new ArrayList<File>();
+		PotReader.SampleBuffers samples = new PotReader(file, this).sampleBuffers();
+		sourceName = baseName(file);
+		sample = 0;
+		while (samples.hasNext()){
+			ByteBuffer bb = samples.next();
+			position = bb.position();
+			StrokeKanji k = decodeToJPG(bb); //Writes JPG files
+			written.add(jpgFile(k.label));
+			sample++;
+		}
+		return written;
+	}
+
+	/**
+	 * updateJPGs
+	 * 
+	 * Writes the JPGs of every .pot file in a folder that changed since its JPGs were last written
+	 * 
+	 * @param input - the folder of .pot files
+	 * @return the number of .pot files converted
+	 * 
+	 * @pseudocode
+	 * 1. Skip the files whose content and JPGs are unchanged (see BuildLedger)
+	 * 2. Write the JPGs of the others, deleting JPGs they no longer make
+	 * 3. Delete the JPGs of files that were removed
+	 * 
+	 * @note the ledger is kept in the working directory, next to the JPG folders
+	 */
+	public int updateJPGs(String input){
+		File folder = new File(input);
+		List<File> files = CorpusLoader.listFiles(folder, ".pot");
+		BuildLedger ledger = BuildLedger.open(new File("kanjiSVG" + BuildLedger.EXTENSION));
+		int converted = 0;
+		try {
+			for (File file : files){
+				//Step 1. unchanged
+				if (ledger.isCurrent(file)){
+					continue;
 				}
+
+				//Step 2. convert
+				ledger.record(file, writeJPGs(file));
+				converted++;
 			}
 
+			//Step 3. removed
+			ledger.retain(folder, files);
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			ledger.save();
+		}
+		return converted;
+	}
 
-		} catch (IOException e) {e.printStackTrace();}
+	/**
+	 * jpgFile
+	 * 
+	 * @param label - a kanji
+	 * @return File - where decodeToJPG writes its JPG, named after the kanji, the .pot file and the sample's place in it
+	 */
+	File jpgFile(Character label){
+		String name = String.valueOf(label) + this.filenum + "_" + sourceName + "_" + sample + ".jpg";
+		if (this.filenum < 51){
+			return new File("./kanjiSVGtraining/" + name);
+		}
+		return new File("./kanjiSVGtest/" + name);
+	}
 
-		return KanjiList;
+	//the file name up to its first dot, so C001-f.pot and C001-f.pot.gz name their JPGs alike
+	static String baseName(File file){
+		String name = file.getName();
+		int dot = name.indexOf('.');
+		return dot < 0 ? name : name.substring(0, dot);
 	}
 
 	/**
@@ -103,6 +173,8 @@ public class ChineseOnlineHandwritingToJPG{
 
 		try {
 			ByteBuffer bb = ByteBuffer.wrap(FileUtils.readFileToByteArray(file));
+			sourceName = baseName(file);
+			sample = 0;
 			decodeToJPG(bb);
 
 		} catch (IOException e) {e.printStackTrace();}
@@ -156,12 +228,11 @@ public class ChineseOnlineHandwritingToJPG{
 
 		//put it in little_endian order
 		bb.order(ByteOrder.LITTLE_ENDIAN);
-		samplesize = (int) bb.getShort();
+		samplesize = bb.getChar();
 		int original = (bb.getChar());
 
 		//lookup the tagcode in the gbk table
-		try {k.label = gbkl.Lookup(Integer.toHexString(original)).charAt(0);
-		} catch (IOException e) {e.printStackTrace();} 
+		k.label = GBKTable.toUnicode(original);
 
 		bb.getChar();
 		k.numstrokes = bb.getShort();
@@ -257,11 +328,7 @@ public class ChineseOnlineHandwritingToJPG{
 
 		//Step 4. Transcode the file
 
-		if (this.filenum < 51){
-			jpgs.transcode("temp.svg", "./kanjiSVGtraining/" + String.valueOf(k.label) + this.filenum + ".jpg");
-		}else{
-			jpgs.transcode("temp.svg", "./kanjiSVGtest/" + String.valueOf(k.label) + this.filenum + ".jpg");
-		}
+		jpgs.transcode("temp.svg", jpgFile(k.label).getPath());
 
 		//clean up
 		new File("temp.svg").delete();
@@ -277,6 +344,23 @@ public class ChineseOnlineHandwritingToJPG{
 	 * The point is to use these features for later classification 
 	 * 
 	 * @param bb - The byte buffer containing the information about the Kanji
+	 * @return Kanji - a Kanji object, without its fullStrokes
+	 * 
+	 * @note reentrant - decoding starts at bb.position() and leaves the buffer at the next sample
+	 */
+
+	//overwrite - pass any byte buffer
+	public StrokeKanji decodeToStrokes(ByteBuffer bb){
+		return decodeToStrokes(bb, false);
+	}
+
+	/**
+	 * decodeToStrokes
+	 * 
+	 * Reads stroke data about a kanji and saves it in a Kanji Object. 
+	 * 
+	 * @param bb - The byte buffer containing the information about the Kanji
+	 * @param keepPoints - whether to keep the whole trajectory as fullStrokes, for rasterizing
 	 * @return Kanji - a Kanji object
 	 * 
 	 * @pseudocode
@@ -284,10 +368,9 @@ public class ChineseOnlineHandwritingToJPG{
 	 * 2. read in every stroke
 	 * 3. process to get angles
 	 * 
+	 * @note reentrant - decoding starts at bb.position() and leaves the buffer at the next sample
 	 */
-
-	//overwrite - pass any byte buffer
-	public StrokeKanji decodeToStrokes(ByteBuffer bb){
+	public StrokeKanji decodeToStrokes(ByteBuffer bb, boolean keepPoints){
 
 		//Step 1. Read in the tag code
 
@@ -295,94 +378,181 @@ public class ChineseOnlineHandwritingToJPG{
 
 		//put it in little_endian order
 		bb.order(ByteOrder.LITTLE_ENDIAN);
-		samplesize = (int) bb.getShort();
+		//read relative to the buffer, not decoder state, so one decoder can serve many threads
+		int position = bb.position();
+		int samplesize = bb.getChar();
 		int original = (bb.getChar());
 
 		//lookup the tagcode in the gbk table
-		try {k.label = gbkl.Lookup(Integer.toHexString(original)).charAt(0);
-		} catch (IOException e) {e.printStackTrace();} 
+		k.label = GBKTable.toUnicode(original);
 
 		bb.getChar();
 		//		System.out.println((char)original + "tagcode: "+ k.tagCode + " byte array: " + toByteArray(k.tagCode.getBytes()));
 		k.numstrokes = bb.getShort();
 
-		strokes = new int[(samplesize - (bb.position() - position)) / 2];		
+		int[] strokes = new int[(samplesize - (bb.position() - position)) / 2];		
 		//there will never be more than 30 strokes per kanji
 		k.reducedStrokes = new int[120];
 		k.lengths = new int[30];
 		k.angles = new int[30];
 		k.moves = new int[29];
 
+		//Step 2. Log the start and end locations of each stroke
+
+		int length = readPoints(bb, position + samplesize, strokes);
+		reduceStrokes(strokes, length, k.reducedStrokes, 0);
+		//keep the whole trajectory only for rasterizing, feature pipelines never read it
+		if (keepPoints){
+			k.fullStrokes = strokes;
+		}
+
+		//Step 3. Process strokes to get angles and lengths
+
+		computeFeatures(k.reducedStrokes, k.lengths, k.angles, k.moves, 0);
+
+		bb.position(position + samplesize);
+
+		//return the kanji object
+		return k;
+
+	}
+
+
+	/**
+	 * decodeToFeatures
+	 * 
+	 * Decodes a sample straight into a new row of a feature matrix, without a StrokeKanji
+	 * 
+	 * @param bb - The byte buffer containing the information about the Kanji
+	 * @param features - the matrix to add the row to
+	 * @param points - scratch space for the sample's points, at least MAX_POINTS long. It is reused between calls.
+	 * @return int - the row written
+	 * 
+	 * @pseudocode
+	 * 1. read the tag code and the number of strokes into the row
+	 * 2. read every point into the scratch buffer and log the start and end of each stroke
+	 * 3. process to get angles
+	 * 
+	 * @note nothing is allocated per sample once the matrix has grown to its final size
+	 */
+	public int decodeToFeatures(ByteBuffer bb, StrokeFeatures features, int[] points){
+
+		//Step 1. header
+		bb.order(ByteOrder.LITTLE_ENDIAN);
+		int position = bb.position();
+		int samplesize = bb.getChar();
+		int row = features.addRow();
+		features.labels[row] = GBKTable.toUnicode(bb.getChar());
+		bb.getChar();
+		features.numstrokes[row] = bb.getShort();
+
+		//Step 2. points
+		int length = readPoints(bb, position + samplesize, points);
+		reduceStrokes(points, length, features.reducedStrokes, row * StrokeFeatures.POINTS);
+
+		//Step 3. features
+		computeFeatures(features.reducedStrokes, features.lengths, features.angles, features.moves, row);
+
+		bb.position(position + samplesize);
+		return row;
+	}
+
+	/**
+	 * readPoints
+	 * 
+	 * @param bb - a buffer positioned at the first point of a sample
+	 * @param end - the buffer position where the sample ends
+	 * @param points - where to copy the points to
+	 * @return int - the number of ints copied
+	 */
+	static int readPoints(ByteBuffer bb, int end, int[] points){
 		int i = 0;
-		int g = 0;
+		while (bb.position() < end){
+			points[i++] = bb.getShort();
+		}
+		return i;
+	}
 
-		//Step 2. Log the start and end locations of each stroke
+	/**
+	 * reduceStrokes
+	 * 
+	 * Logs the start and end locations of each stroke
+	 * 
+	 * @param strokes - x, y pairs where (-1, 0) ends a stroke
+	 * @param length - the number of ints of strokes to use
+	 * @param reduced - where to write start x, start y, end x, end y for each stroke
+	 * @param offset - the first index of reduced to write
+	 * 
+	 * @note strokes past the 30th are dropped
+	 */
+	static void reduceStrokes(int[] strokes, int length, int[] reduced, int offset){
+		int g = offset;
+		int end = offset + StrokeFeatures.POINTS;
 
-		while((bb.position() - position) < samplesize){
-			strokes[i++] = bb.getShort();
+		for (int i = 1; i <= length && g < end; i++){
 
 			//log the first 2 strokes
 			if (i == 2){
 				//startx
-				k.reducedStrokes[g++] = strokes[i-2];
+				reduced[g++] = strokes[i-2];
 				//starty
-				k.reducedStrokes[g++] = strokes[i-1];
+				reduced[g++] = strokes[i-1];
 			}
 
 			//log start strokes (valid strokes following -1,0)
-			if (i > 4 && strokes[i-4] == -1 && strokes [i-3] == 0 && strokes[i-2] != -1 && strokes[i-1] != -1){
-				k.reducedStrokes[g++] = strokes[i-2];
-				k.reducedStrokes[g++] = strokes[i-1];
+			if (i > 4 && strokes[i-4] == -1 && strokes [i-3] == 0 && strokes[i-2] != -1 && strokes[i-1] != -1 && g < end){
+				reduced[g++] = strokes[i-2];
+				reduced[g++] = strokes[i-1];
 			}
 
 			//log end strokes (valid strokes before -1,0)
-			if (i > 4 && strokes[i-1] == -1 && strokes[i-2] != -1 && strokes[i-3] != -1){
-				k.reducedStrokes[g++] = strokes[i-3];
-				k.reducedStrokes[g++] = strokes[i-2];
+			if (i > 4 && strokes[i-1] == -1 && strokes[i-2] != -1 && strokes[i-3] != -1 && g < end){
+				reduced[g++] = strokes[i-3];
+				reduced[g++] = strokes[i-2];
 			}
-
-			//System.out.println("startx: " + strokestartend[g-2] + " starty: " + strokestartend[g-1]);
-			//System.out.println("endx: " + strokestartend[g-2] + " endy: " + strokestartend[g-1]);
-			//System.out.println("samplessize: " + samplesize + " tagcode: " + tagCode + " numstrokes: " + numstrokes + " position: " + bb.position() + "stroke: " + strokes [i-1]);
 		}
+	}
 
-		//Step 3. Process strokes to get angles and lengths
+	/**
+	 * computeFeatures
+	 * 
+	 * Processes the start and end of each stroke to get angles and lengths
+	 * 
+	 * @param reduced - start and end points, 120 per row
+	 * @param lengths - 30 per row
+	 * @param angles - 30 per row
+	 * @param moves - 29 per row
+	 * @param row - the row to compute (0 for a single StrokeKanji's arrays)
+	 */
+	static void computeFeatures(int[] reduced, int[] lengths, int[] angles, int[] moves, int row){
+		int r = row * StrokeFeatures.POINTS;
+		int l = row * StrokeFeatures.STROKES;
+		int m = row * StrokeFeatures.MOVES;
 
 		for (int s = 0; s < 30; s++){
-			int startx = k.reducedStrokes[s*4];
-			int starty = k.reducedStrokes[s*4 + 1];
-			int endx = k.reducedStrokes[s*4 + 2];
-			int endy = k.reducedStrokes[s*4 + 3];
-
-			//	System.out.println("stroke: " + s + "startx: " + startx + "starty: " + starty + "endx: " + endx + "endy: " + endy);
+			int startx = reduced[r + s*4];
+			int starty = reduced[r + s*4 + 1];
+			int endx = reduced[r + s*4 + 2];
+			int endy = reduced[r + s*4 + 3];
 
 			int deltaX = startx - endx;
 			int deltaY = starty - endy;
 			double length = Math.sqrt(deltaX * deltaX + deltaY * deltaY);
 			double angleInDegrees = Math.atan2(deltaY, deltaX) * 180 / Math.PI;
-			//System.out.println("deltax: " + deltaX + " deltay: " + deltaY + " angle: " + angleInDegrees + " length: " + length);
 
-			k.angles[s] = (int) angleInDegrees;
-			k.lengths[s] = (int) length;
-			
+			angles[l + s] = (int) angleInDegrees;
+			lengths[l + s] = (int) length;
+
 			if (s!= 0){
-				int lastendx = k.reducedStrokes[(s-1)*4 + 2];
-				int lastendy = k.reducedStrokes[(s-1)*4 + 3];
+				int lastendx = reduced[r + (s-1)*4 + 2];
+				int lastendy = reduced[r + (s-1)*4 + 3];
 				int strokeDeltaX = lastendx - startx;
 				int strokeDeltaY = lastendy - starty;
-				k.moves[s-1] = (int) (Math.atan2(strokeDeltaY, strokeDeltaX) * 180 / Math.PI);
+				moves[m + s-1] = (int) (Math.atan2(strokeDeltaY, strokeDeltaX) * 180 / Math.PI);
 			}
 		}
-
-		bb.position(position + samplesize);
-		position = bb.position();
-
-		//return the kanji object
-		return k;
-
 	}
 
-
 	/**
 	 * processKanji
 	 * 
@@ -390,48 +560,60 @@ public class ChineseOnlineHandwritingToJPG{
 	 * 
 	 * @param input - The location of the byte buffer (.pot files)
 	 * @param output - The location of the output txt file
-	 * @param num - the number of files to look at.
-	 * 
+	 * @param num - the number of files to look at (0 for all of them).
 	 * 
+	 * @note the files are decoded in parallel - see CorpusExporter
 	 */
 
 	public void processKanji(String input, String output, int num){
-		ChineseOnlineHandwritingToJPG dh = new ChineseOnlineHandwritingToJPG();
+		processKanji(input, output, num, 1, false);
+	}
 
-		//testing
-		File folder = new File(input);
+	/**
+	 * processKanji
+	 * 
+	 * Exports the Kanji to one or more text or binary files
+	 * 
+	 * @param input - The location of the byte buffer (.pot files)
+	 * @param output - The location of the output file
+	 * @param num - the number of files to look at (0 for all of them).
+	 * @param shards - the number of output files to write at once
+	 * @param binary - true to write FeatureCache files instead of text
+	 * 
+	 * @note nothing is written if no .pot file changed since the last export to the same output (see BuildLedger)
+	 */
 
-		//increasing filenum limits the number of items to import
-		dh.filenum = 60 - num;
+	public void processKanji(String input, String output, int num, int shards, boolean binary){
+		File folder = new File(input);
+		List<File> files = CorpusLoader.listFiles(folder, ".pot");
+		if (num > 0 && num < files.size()){
+			files = files.subList(0, num);
+		}
+		CorpusExporter exporter = new CorpusExporter(Runtime.getRuntime().availableProcessors(), shards, binary);
+		File out = new File(output);
+
+		//the export is current if the same files, unchanged, were last exported to the same shards
+		BuildLedger ledger = BuildLedger.open(new File(output + BuildLedger.EXTENSION));
+		ArrayList<File> shardFiles = new ArrayList<File>();
+		for (int shard = 0; shard < Math.max(1, shards); shard++){
+			shardFiles.add(exporter.shardFile(out, shard).getAbsoluteFile());
+		}
+		boolean current = ledger.retain(folder, files) == 0;
+		for (File file : files){
+			current = current && ledger.isCurrent(file) && ledger.outputs(file).equals(shardFiles);
+		}
 
 		try{
-			File out = new File(output);
-			// if file doesnt exists, then create it
-			if (!out.exists()) {
-				out.createNewFile();
+			if (!current){
+				List<File> written = exporter.export(files, out);
+				for (File file : files){
+					ledger.record(file, written);
+				}
 			}
-
-			FileWriter fw = new FileWriter(out.getAbsoluteFile());
-			BufferedWriter bw = new BufferedWriter(fw);
-			for (final File fileEntry : folder.listFiles()) {
-				if (fileEntry.getName().endsWith(".pot")){
-
-					dh.position = 0;
-					//decode information about each kanji
-					//boolean decides whether or not to write a jpg file for each as well.
-					dh.decodeAll(fileEntry, false);
-
-					//write that information to the file
-					for (StrokeKanji k : dh.KanjiList){
-						if (k != null){
-							bw.write("" + k + "\n");
-						}
-					}
-				}	
-			}	
-			bw.close();
 		} catch (IOException e) {
 			e.printStackTrace();
+		} finally {
+			ledger.save();
 		}
 
 	}
@@ -0,0 +1,227 @@
+package utils;
+/**
+ * CorpusExporter
+ *
+ * Exports a folder of .pot (CASIA) files to the collected text format, or to a binary feature file
+ *
+ * Files are decoded on a pool of worker threads while one writer thread per output shard
+ * writes them out, so decoding, formatting and disk writes overlap. Each worker formats its
+ * records into its own reusable buffer. Every shard holds a contiguous run of files in name
+ * order, so the concatenated shards read the same as a single export. At most a few files per
+ * thread are decoded ahead of the writers, and each file is let go as soon as it is written, so
+ * the memory an export takes does not grow with the corpus.
+ *
+ * Usage:
+ *
+ * new CorpusExporter(4, 1, false).export(CorpusLoader.listFiles(folder, ".pot"), new File("kanji.txt"));
+ *
+ **/
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import kanjiClasses.StrokeFeatures;
+
+public class CorpusExporter {
+
+	//one formatting buffer per worker, kept between files
+	private static final ThreadLocal<StringBuilder> buffers = new ThreadLocal<StringBuilder>(){
+		protected StringBuilder initialValue(){
+			return new StringBuilder(1 << 20);
+		}
+	};
+
+	//files decoded ahead of the writers, per decoding thread
+	static final int AHEAD = 4;
+
+	private int threads;
+	private int shards;
+	private boolean binary;
+
+	/**
+	 * CorpusExporter constructor
+	 *
+	 * Writes one text file, decoding on every core
+	 */
+	public CorpusExporter(){
+		this(Runtime.getRuntime().availableProcessors(), 1, false);
+	}
+
+	/**
+	 * CorpusExporter constructor
+	 *
+	 * @param threads - the number of decoding threads
+	 * @param shards - the number of output files to write at once
+	 * @param binary - true to write FeatureCache files instead of text
+	 */
+	public CorpusExporter(int threads, int shards, boolean binary){
+		this.threads = Math.max(1, threads);
+		this.shards = Math.max(1, shards);
+		this.binary = binary;
+	}
+
+	/**
+	 * shardFile
+	 *
+	 * @param output - the requested output file, such as kanji.txt
+	 * @param shard - the shard number
+	 * @return the output itself for a single shard, otherwise kanji-<shard>.txt
+	 */
+	public File shardFile(File output, int shard){
+		if (shards == 1){
+			return output;
+		}
+		String name = output.getName();
+		int dot = name.lastIndexOf('.');
+		name = dot < 0 ? name + "-" + shard : name.substring(0, dot) + "-" + shard + name.substring(dot);
+		return new File(output.getParentFile(), name);
+	}
+
+	/**
+	 * export
+	 *
+	 * @summary Decodes .pot files in parallel and writes them to the output shards
+	 *
+	 * @param files - the .pot files, in output order
+	 * @param output - the output file (see shardFile)
+	 * @return the files written
+	 * @throws IOException if a file cannot be decoded or written
+	 *
+	 * @pseudocode
+	 * 1. Start one writer per shard, each waiting on its own run of files
+	 * 2. Submit one decode task per file to a pool with a bounded queue, once a writer has let go of an earlier file
+	 * 3. Wait for the writers
+	 *
+	 * @note the files are submitted in order and each writer takes its files in order, so the earliest file
+	 * decoded and not yet written is always the one its writer is waiting for
+	 */
+	public List<File> export(List<File> files, File output) throws IOException{
+		ArrayList<File> written = new ArrayList<File>();
+
+		ThreadPoolExecutor decoders = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(threads * 2), new ThreadPoolExecutor.CallerRunsPolicy());
+		ExecutorService writers = Executors.newFixedThreadPool(shards);
+		try {
+			//Step 1. writers
+			final ArrayList<Future<Object>> decoded = new ArrayList<Future<Object>>();
+			for (int i = 0; i < files.size(); i++){
+				decoded.add(null);
+			}
+			final Semaphore ahead = new Semaphore(threads * AHEAD);
+			ArrayList<Future<File>> shardResults = new ArrayList<Future<File>>();
+			for (int shard = 0; shard < shards; shard++){
+				final int first = shard * files.size() / shards;
+				final int last = (shard + 1) * files.size() / shards;
+				final File out = shardFile(output, shard);
+				shardResults.add(writers.submit(new Callable<File>(){
+					public File call() throws Exception{
+						return binary ? writeFeatures(decoded, ahead, first, last, out) : writeText(decoded, ahead, first, last, out);
+					}
+				}));
+			}
+
+			//Step 2. decoders
+			for (int i = 0; i < files.size(); i++){
+				while (!ahead.tryAcquire(100, TimeUnit.MILLISECONDS)){
+					//a writer that failed will never let go of its files
+					for (Future<File> shardResult : shardResults){
+						if (shardResult.isDone()){
+							shardResult.get();
+						}
+					}
+				}
+				final File file = files.get(i);
+				Future<Object> result = decoders.submit(new Callable<Object>(){
+					public Object call(){
+						StrokeFeatures features = FeatureCache.load(file, ".pot");
+						return binary ? features : format(features);
+					}
+				});
+				synchronized (decoded){
+					decoded.set(i, result);
+					decoded.notifyAll();
+				}
+			}
+
+			//Step 3. wait
+			for (Future<File> shardResult : shardResults){
+				written.add(shardResult.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new IOException("could not export to " + output, e.getCause());
+		} finally {
+			decoders.shutdownNow();
+			writers.shutdownNow();
+		}
+
+		return written;
+	}
+
+	/**
+	 * format
+	 *
+	 * @param features - the decoded kanjis of one file
+	 * @return String - one StrokeKanji.toString line per kanji
+	 */
+	static String format(StrokeFeatures features){
+		StringBuilder sb = buffers.get();
+		sb.setLength(0);
+		for (int row = 0; row < features.size; row++){
+			features.appendTo(row, sb).append('\n');
+		}
+		return sb.toString();
+	}
+
+	//waits for a file's decode task to be submitted and finish, then lets go of it so another file can be decoded
+	private static Object take(ArrayList<Future<Object>> decoded, Semaphore ahead, int i) throws InterruptedException, ExecutionException{
+		Future<Object> result;
+		synchronized (decoded){
+			while ((result = decoded.get(i)) == null){
+				decoded.wait();
+			}
+			decoded.set(i, null);
+		}
+		try {
+			return result.get();
+		} finally {
+			ahead.release();
+		}
+	}
+
+	private static File writeText(ArrayList<Future<Object>> decoded, Semaphore ahead, int first, int last, File out) throws Exception{
+		BufferedWriter bw = new BufferedWriter(new FileWriter(out), 1 << 16);
+		try {
+			for (int i = first; i < last; i++){
+				bw.write((String) take(decoded, ahead, i));
+			}
+		} finally {
+			bw.close();
+		}
+		return out;
+	}
+
+	private static File writeFeatures(ArrayList<Future<Object>> decoded, Semaphore ahead, int first, int last, File out) throws Exception{
+		StrokeFeatures features = new StrokeFeatures(64, false);
+		for (int i = first; i < last; i++){
+			features.addAll((StrokeFeatures) take(decoded, ahead, i));
+		}
+		FeatureCache.write(features, 0, 0, out);
+		return out;
+	}
+
+}
@@ -0,0 +1,156 @@
+package utils;
+/**
+ * CorpusLoader
+ *
+ * Decodes a folder of .pot (CASIA) or .txt (collected) files on every core
+ *
+ * Each file is decoded by its own task on a fixed pool of worker threads. The work queue is
+ * bounded, so when it is full the submitting thread decodes the next file itself instead of
+ * queueing more. Results are merged in file name order, so the output does not depend on which
+ * thread finished first. Files with a fresh FeatureCache are mapped instead of parsed.
+ *
+ * Usage:
+ *
+ * ArrayList<StrokeKanji> kanjis = new CorpusLoader().load(folder, ".pot");
+ *
+ **/
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import kanjiClasses.StrokeKanji;
+
+public class CorpusLoader {
+
+	//decoders keep no per-sample state, so every worker shares this one
+	private static final ChineseOnlineHandwritingToJPG decoder = new ChineseOnlineHandwritingToJPG();
+
+	private int threads;
+	private int queueSize;
+
+	/**
+	 * CorpusLoader constructor
+	 *
+	 * Uses one worker per core
+	 */
+	public CorpusLoader(){
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * CorpusLoader constructor
+	 *
+	 * @param threads - the number of worker threads
+	 */
+	public CorpusLoader(int threads){
+		this.threads = Math.max(1, threads);
+		this.queueSize = this.threads * 2;
+	}
+
+	/**
+	 * listFiles
+	 *
+	 * @param folder - the data folder
+	 * @param fileType - ".pot" or ".txt"
+	 * @return the matching files, including compressed ones (see CorpusStreams.matches), sorted by name
+	 *
+	 * @note the folder is only listed again when files were added to or removed from it (see DatasetCatalog.load)
+	 */
+	public static List<File> listFiles(File folder, String fileType){
+		ArrayList<File> files = new ArrayList<File>();
+		for (DatasetCatalog.Entry entry : DatasetCatalog.load(folder).entries("")){
+			if (entry.matches(fileType)){
+				files.add(entry.file);
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * decode
+	 *
+	 * @summary Decodes a single file on the calling thread
+	 *
+	 * @param file - the data file
+	 * @param fileType - ".pot" or ".txt"
+	 * @return the kanjis in the file, in file order
+	 */
+	public static ArrayList<StrokeKanji> decode(File file, String fileType){
+		ArrayList<StrokeKanji> kanjis = new ArrayList<StrokeKanji>();
+		if (fileType.equals(".pot")){
+			for (StrokeKanji k : new PotReader(file, decoder)){
+				kanjis.add(k);
+			}
+		}
+		if (fileType.equals(".txt")){
+			kanjis = new ImageProcessingUtils().textToStrokeKanji(file.getAbsolutePath());
+		}
+		return kanjis;
+	}
+
+	/**
+	 * load
+	 *
+	 * @param folder - the data folder
+	 * @param fileType - ".pot" or ".txt"
+	 * @return every kanji in the folder, in file name order
+	 */
+	public ArrayList<StrokeKanji> load(File folder, String fileType){
+		return load(listFiles(folder, fileType), fileType);
+	}
+
+	/**
+	 * load
+	 *
+	 * @summary Decodes a list of files in parallel
+	 *
+	 * @param files - the data files
+	 * @param fileType - ".pot" or ".txt"
+	 * @return every kanji in the files, in list order
+	 *
+	 * @pseudocode
+	 * 1. Submit one decode task per file to a pool with a bounded queue
+	 * 2. Wait for the tasks in submission order and append their kanjis
+	 */
+	public ArrayList<StrokeKanji> load(List<File> files, final String fileType){
+		ArrayList<StrokeKanji> kanjis = new ArrayList<StrokeKanji>();
+
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueSize), new ThreadPoolExecutor.CallerRunsPolicy());
+		try {
+			//Step 1. submit
+			ArrayList<Future<ArrayList<StrokeKanji>>> results = new ArrayList<Future<ArrayList<StrokeKanji>>>();
+			for (final File file : files){
+				results.add(pool.submit(new Callable<ArrayList<StrokeKanji>>(){
+					public ArrayList<StrokeKanji> call(){
+						return FeatureCache.loadKanjis(file, fileType);
+					}
+				}));
+			}
+
+			//Step 2. merge in order
+			for (int i = 0; i < results.size(); i++){
+				try {
+					kanjis.addAll(results.get(i).get());
+				} catch (ExecutionException e) {
+					System.out.println("could not decode " + files.get(i));
+					e.getCause().printStackTrace();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			pool.shutdownNow();
+		}
+
+		return kanjis;
+	}
+
+}
@@ -0,0 +1,160 @@
+package utils;
+/**
+ * CorpusStreams
+ *
+ * Opens data files that may be kept compressed on disk
+ *
+ * A data file can be plain (C001-f.pot), gzipped (C001-f.pot.gz) or a zip archive of many data
+ * files (Pot1.0Train.pot.zip, or any .zip holding files of the type). Compressed files are streamed through the JDK's own codecs with
+ * fixed size buffers and never extracted to disk. A zip reads as the concatenation of its
+ * matching entries, in archive order.
+ *
+ * Usage:
+ *
+ * InputStream in = CorpusStreams.open(file, ".pot");
+ *
+ */
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+public class CorpusStreams {
+
+	public static final String GZIP = ".gz";
+	public static final String ZIP = ".zip";
+
+	//read buffer for every stream
+	static final int BUFFER = 1 << 16;
+
+	/**
+	 * isCompressed
+	 *
+	 * @param file - a data file
+	 * @return true for .gz and .zip files, which cannot be memory-mapped
+	 */
+	public static boolean isCompressed(File file){
+		String name = file.getName();
+		return name.endsWith(GZIP) || name.endsWith(ZIP);
+	}
+
+	/**
+	 * matches
+	 *
+	 * @param file - a data file
+	 * @param fileType - ".pot", ".txt", ".jpg" ...
+	 * @return true for files of the type, plain, gzipped or zipped (C001-f.pot.zip), and for other zip
+	 * archives holding at least one file of the type
+	 *
+	 * @note only a zip without the type in its name is opened, and then only its directory is read
+	 */
+	public static boolean matches(File file, String fileType){
+		String name = file.getName();
+		if (name.endsWith(fileType) || name.endsWith(fileType + GZIP) || name.endsWith(fileType + ZIP)){
+			return true;
+		}
+		return name.endsWith(ZIP) && holds(file, fileType);
+	}
+
+	//whether a zip has an entry of the type, from its central directory
+	private static boolean holds(File zip, String fileType){
+		try {
+			ZipFile zf = new ZipFile(zip);
+			try {
+				Enumeration<? extends ZipEntry> entries = zf.entries();
+				while (entries.hasMoreElements()){
+					ZipEntry entry = entries.nextElement();
+					if (!entry.isDirectory() && entry.getName().endsWith(fileType)){
+						return true;
+					}
+				}
+			} finally {
+				zf.close();
+			}
+		} catch (IOException e) {
+			System.out.println("could not read " + zip + ": " + e.getMessage());
+		}
+		return false;
+	}
+
+	/**
+	 * open
+	 *
+	 * @param file - a plain, gzipped or zipped data file
+	 * @param fileType - the type of the zip entries to read
+	 * @return InputStream - the uncompressed data
+	 * @throws IOException
+	 */
+	public static InputStream open(File file, String fileType) throws IOException{
+		InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER);
+		String name = file.getName();
+		if (name.endsWith(GZIP)){
+			return new GZIPInputStream(in, BUFFER);
+		}
+		if (name.endsWith(ZIP)){
+			return new ZipEntries(new ZipInputStream(in), fileType);
+		}
+		return in;
+	}
+
+	/**
+	 * ZipEntries
+	 *
+	 * Reads the matching entries of a zip one after another as a single stream
+	 */
+	private static class ZipEntries extends InputStream{
+
+		private ZipInputStream zip;
+		private String fileType;
+		private boolean inEntry = false;
+
+		ZipEntries(ZipInputStream zip, String fileType){
+			this.zip = zip;
+			this.fileType = fileType;
+		}
+
+		//moves to the next matching entry, returning false at the end of the zip
+		private boolean nextEntry() throws IOException{
+			ZipEntry entry;
+			while ((entry = zip.getNextEntry()) != null){
+				if (!entry.isDirectory() && entry.getName().endsWith(fileType)){
+					inEntry = true;
+					return true;
+				}
+			}
+			inEntry = false;
+			return false;
+		}
+
+		public int read() throws IOException{
+			byte[] one = new byte[1];
+			return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException{
+			if (len == 0){
+				return 0;
+			}
+			while (inEntry || nextEntry()){
+				int n = zip.read(b, off, len);
+				if (n >= 0){
+					return n;
+				}
+				inEntry = false;
+			}
+			return -1;
+		}
+
+		public void close() throws IOException{
+			zip.close();
+		}
+	}
+
+}
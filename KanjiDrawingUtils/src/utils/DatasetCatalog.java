@@ -0,0 +1,307 @@
+package utils;
+/**
+ * DatasetCatalog
+ *
+ * A manifest of the files in a data folder, so classifiers stop listing the folder over and over
+ *
+ * The folder is scanned once and every file's name, label, size and modification time is saved
+ * to <folder>/.catalog. Later loads trust the manifest, and a catalog in memory, as long as the
+ * folder's own modification time (which changes when files are added, removed or renamed) still
+ * matches. Otherwise the folder is listed again and only the new files are looked at. A file
+ * rewritten in place leaves the folder's time alone, so refresh checks every file's size and
+ * time when asked to. Catalogs stay in memory once loaded, so every classifier in a run shares
+ * a single scan.
+ *
+ * Manifest layout (UTF-8 text):
+ * first line   - folder modification time, as 20 digits
+ * other lines  - name \t label \t size \t modification time
+ *
+ * Usage:
+ *
+ * for (File file : DatasetCatalog.load(folder).files(".pot")){ ... }
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+public class DatasetCatalog {
+
+	public static final String MANIFEST = ".catalog";
+
+	//a folder time this recent may hide a change made in the same tick, so it is not trusted yet
+	static final long RACY = 2000;
+
+	//catalogs already loaded by this JVM, by folder path
+	private static final HashMap<String, DatasetCatalog> loaded = new HashMap<String, DatasetCatalog>();
+
+	/**
+	 * Entry
+	 *
+	 * One file of the dataset
+	 */
+	public static class Entry {
+		public final File file;
+		public final String name;
+		// the first character of the name - the kanji, for image and collected datasets
+		public final Character label;
+		public final long size;
+		public final long modified;
+		// the types this file was checked against and whether it holds them (see matches)
+		private HashMap<String, Boolean> types;
+
+		Entry(File folder, String name, long size, long modified){
+			this.file = new File(folder, name);
+			this.name = name;
+			this.label = name.charAt(0);
+			this.size = size;
+			this.modified = modified;
+		}
+
+		/**
+		 * matches
+		 *
+		 * @param fileType - ".pot", ".txt", ".jpg" ...
+		 * @return whether the file is of the type, plain or compressed (see CorpusStreams.matches)
+		 *
+		 * @note the answer is kept with the entry, so a zip's directory is read once per type while the zip is unchanged
+		 */
+		public synchronized boolean matches(String fileType){
+			if (types == null){
+				types = new HashMap<String, Boolean>();
+			}
+			Boolean holds = types.get(fileType);
+			if (holds == null){
+				holds = CorpusStreams.matches(file, fileType);
+				types.put(fileType, holds);
+			}
+			return holds;
+		}
+	}
+
+	private File folder;
+	private long folderModified;
+	// sorted by name
+	private ArrayList<Entry> entries = new ArrayList<Entry>();
+
+	private DatasetCatalog(File folder){
+		this.folder = folder;
+	}
+
+	public File getFolder(){
+		return folder;
+	}
+
+	/**
+	 * load
+	 *
+	 * @summary Gets the catalog of a folder, listing the folder again only if files were added or removed
+	 *
+	 * @param folder - the data folder
+	 * @return DatasetCatalog
+	 *
+	 * @note files changed in place are not noticed until refresh is called
+	 */
+	public static DatasetCatalog load(File folder){
+		String key = folder.getAbsolutePath();
+		synchronized (loaded){
+			DatasetCatalog catalog = loaded.get(key);
+			if (catalog == null){
+				catalog = new DatasetCatalog(folder);
+				catalog.readManifest();
+				loaded.put(key, catalog);
+			}
+			catalog.update(false);
+			return catalog;
+		}
+	}
+
+	/**
+	 * size
+	 *
+	 * @return the number of files in the folder, of any type
+	 */
+	public int size(){
+		return entries.size();
+	}
+
+	/**
+	 * entries
+	 *
+	 * @param fileType - the file ending to keep, such as ".pot" or ".jpg"
+	 * @return the matching entries, sorted by name
+	 */
+	public List<Entry> entries(String fileType){
+		ArrayList<Entry> matches = new ArrayList<Entry>();
+		for (Entry entry : entries){
+			if (entry.name.endsWith(fileType)){
+				matches.add(entry);
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * files
+	 *
+	 * @param fileType - the file ending to keep, such as ".pot" or ".jpg"
+	 * @return the matching files, sorted by name
+	 */
+	public List<File> files(String fileType){
+		ArrayList<File> matches = new ArrayList<File>();
+		for (Entry entry : entries){
+			if (entry.name.endsWith(fileType)){
+				matches.add(entry.file);
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * refresh
+	 *
+	 * @summary Brings the catalog up to date with the folder, including files rewritten in place
+	 *
+	 * @note checks every file's size and time - load only lists the folder when its time changed
+	 */
+	public void refresh(){
+		update(true);
+	}
+
+	/**
+	 * update
+	 *
+	 * @summary Lists the folder again and saves the manifest if anything changed
+	 *
+	 * @param recheck - whether to check the size and time of files already in the catalog
+	 *
+	 * @pseudocode
+	 * 1. Stop if the folder's time is unchanged and not too recent to trust, unless every file is to be checked
+	 * 2. List the folder once, keeping the entries of known files and looking only at new ones (or every one)
+	 * 3. Stop if no file was added, removed or changed
+	 * 4. Save the manifest
+	 */
+	synchronized void update(boolean recheck){
+		//Step 1. unchanged
+		long modified = folder.lastModified();
+		boolean changed = modified != folderModified;
+		if (!changed && !recheck && modified != 0 && System.currentTimeMillis() - modified > RACY){
+			return;
+		}
+
+		//Step 2. rescan
+		HashMap<String, Entry> previous = new HashMap<String, Entry>();
+		for (Entry entry : entries){
+			previous.put(entry.name, entry);
+		}
+		ArrayList<Entry> scanned = new ArrayList<Entry>();
+		File[] files = folder.listFiles();
+		if (files != null){
+			Arrays.sort(files);
+			for (File file : files){
+				if (file.getName().equals(MANIFEST) || file.getName().equals(MANIFEST + ".tmp")){
+					continue;
+				}
+				Entry entry = previous.get(file.getName());
+				if (entry == null || recheck){
+					if (!file.isFile()){
+						continue;
+					}
+					long size = file.length();
+					long time = file.lastModified();
+					if (entry == null || entry.size != size || entry.modified != time){
+						entry = new Entry(folder, file.getName(), size, time);
+						changed = true;
+					}
+				}
+				scanned.add(entry);
+			}
+		}
+		//Step 3. unchanged
+		if (!changed && scanned.size() == entries.size()){
+			return;
+		}
+		entries = scanned;
+		folderModified = modified;
+
+		//Step 4. save
+		try {
+			writeManifest();
+		} catch (IOException e) {
+			System.out.println("could not write catalog for " + folder + ": " + e.getMessage());
+		}
+	}
+
+	private void readManifest(){
+		File manifest = new File(folder, MANIFEST);
+		if (!manifest.isFile()){
+			return;
+		}
+		try {
+			BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(manifest), "UTF-8"));
+			try {
+				long modified = Long.parseLong(br.readLine());
+				ArrayList<Entry> read = new ArrayList<Entry>();
+				String line;
+				while ((line = br.readLine()) != null){
+					String[] fields = line.split("\t");
+					read.add(new Entry(folder, fields[0], Long.parseLong(fields[2]), Long.parseLong(fields[3])));
+				}
+				entries = read;
+				folderModified = modified;
+			} finally {
+				br.close();
+			}
+		} catch (Exception e) {
+			//a damaged manifest is rebuilt by the next refresh
+			System.out.println("ignoring catalog " + manifest + ": " + e.getMessage());
+			entries = new ArrayList<Entry>();
+			folderModified = 0;
+		}
+	}
+
+	private void writeManifest() throws IOException{
+		File manifest = new File(folder, MANIFEST);
+		File temp = new File(folder, MANIFEST + ".tmp");
+		BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), "UTF-8"));
+		try {
+			bw.write(stamp(folderModified));
+			bw.write('\n');
+			for (Entry entry : entries){
+				bw.write(entry.name + "\t" + entry.label + "\t" + entry.size + "\t" + entry.modified + "\n");
+			}
+		} finally {
+			bw.close();
+		}
+		if (manifest.exists() && !manifest.delete() || !temp.renameTo(manifest)){
+			temp.delete();
+			throw new IOException("could not replace " + manifest);
+		}
+
+		//renaming the manifest touched the folder, so record the new time in place (which does not touch it again)
+		folderModified = folder.lastModified();
+		RandomAccessFile raf = new RandomAccessFile(manifest, "rw");
+		try {
+			raf.write(stamp(folderModified).getBytes("UTF-8"));
+		} finally {
+			raf.close();
+		}
+	}
+
+	//fixed width, so the stamp can be overwritten in place
+	private static String stamp(long modified){
+		return String.format("%020d", modified);
+	}
+
+}
@@ -0,0 +1,268 @@
+package utils;
+/**
+ * FeatureCache
+ *
+ * Binary sidecar holding the extracted stroke features of one data file
+ *
+ * The first time a .pot or .txt file is read its features are written next to it as
+ * <file>.features. Later runs memory-map that file instead of parsing the source again.
+ * The cache is ignored (and rewritten) whenever its version or the source's length or
+ * modification time no longer match.
+ *
+ * Layout (big endian):
+ * header  - int magic "KSF1", int version, int count, int flags, long source length, long source modified
+ * columns - char labels[count] (padded to 4 bytes), int numstrokes[count], int reducedStrokes[count*120],
+ *           int lengths[count*30], int angles[count*30], int moves[count*29]
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+import kanjiClasses.StrokeFeatures;
+import kanjiClasses.StrokeKanji;
+
+public class FeatureCache {
+
+	public static final String EXTENSION = ".features";
+
+	static final int MAGIC = 0x4b534631;
+	static final int VERSION = 1;
+	static final int HEADER = 32;
+
+	//flags
+	static final int COLLECTED = 1;
+
+	//set to false to always parse the source files
+	public static boolean enabled = true;
+
+	/**
+	 * cacheFile
+	 *
+	 * @param source - a .pot or .txt data file
+	 * @return the cache file for the source
+	 */
+	public static File cacheFile(File source){
+		return new File(source.getPath() + EXTENSION);
+	}
+
+	/**
+	 * load
+	 *
+	 * @summary Gets the features of a data file, from its cache when possible
+	 *
+	 * @param source - a .pot or .txt data file
+	 * @param fileType - ".pot" or ".txt"
+	 * @return StrokeFeatures - one row per kanji, in file order
+	 *
+	 * @pseudocode
+	 * 1. Map the cache if it is fresh
+	 * 2. Otherwise parse the source and write the cache for next time
+	 */
+	public static StrokeFeatures load(File source, String fileType){
+		//Step 1. cached
+		StrokeFeatures features = readFresh(source);
+		if (features != null){
+			return features;
+		}
+
+		//Step 2. parse and cache
+		features = decode(source, fileType);
+		if (enabled){
+			try {
+				write(features, source, cacheFile(source));
+			} catch (IOException e) {
+				System.out.println("could not write feature cache for " + source + ": " + e.getMessage());
+			}
+		}
+		return features;
+	}
+
+	/**
+	 * decode
+	 *
+	 * @param source - a .pot or .txt data file
+	 * @param fileType - ".pot" or ".txt"
+	 * @return StrokeFeatures - parsed from the source; .pot samples are decoded straight into rows
+	 */
+	static StrokeFeatures decode(File source, String fileType){
+		if (fileType.equals(".pot")){
+			try {
+				return new PotReader(source).readFeatures();
+			} catch (IOException e) {
+				e.printStackTrace();
+				return new StrokeFeatures(0, false);
+			}
+		}
+		return StrokeFeatures.fromKanjis(CorpusLoader.decode(source, fileType), fileType.equals(".txt"));
+	}
+
+	/**
+	 * loadKanjis
+	 *
+	 * @param source - a .pot or .txt data file
+	 * @param fileType - ".pot" or ".txt"
+	 * @return the kanjis in the file, in file order
+	 */
+	public static ArrayList<StrokeKanji> loadKanjis(File source, String fileType){
+		return load(source, fileType).toKanjis();
+	}
+
+	/**
+	 * readFresh
+	 *
+	 * @param source - a .pot or .txt data file
+	 * @return the cached features, or null if caching is off or the cache is missing or stale
+	 */
+	public static StrokeFeatures readFresh(File source){
+		File cache = cacheFile(source);
+		if (!enabled || !cache.isFile()){
+			return null;
+		}
+		try {
+			return read(cache, source.length(), source.lastModified());
+		} catch (IOException e) {
+			System.out.println("ignoring feature cache " + cache + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * readExport
+	 *
+	 * @param file - a feature file written by CorpusExporter
+	 * @return StrokeFeatures
+	 * @throws IOException if the file is not a standalone feature file of this version
+	 */
+	public static StrokeFeatures readExport(File file) throws IOException{
+		StrokeFeatures features = read(file, 0, 0);
+		if (features == null){
+			throw new IOException(file + " is the cache of a data file, not an export");
+		}
+		return features;
+	}
+
+	/**
+	 * read
+	 *
+	 * @summary Maps a cache file and copies its columns out in bulk
+	 *
+	 * @param cache - the cache file
+	 * @param sourceLength - the expected source length
+	 * @param sourceModified - the expected source modification time
+	 * @return StrokeFeatures, or null if the cache belongs to another version of the source
+	 * @throws IOException if the file is not a feature cache of this version
+	 */
+	static StrokeFeatures read(File cache, long sourceLength, long sourceModified) throws IOException{
+		MappedByteBuffer bb = map(cache, FileChannel.MapMode.READ_ONLY, 0);
+
+		if (bb.remaining() < HEADER || bb.getInt() != MAGIC || bb.getInt() != VERSION){
+			throw new IOException("not a version " + VERSION + " feature cache");
+		}
+		int count = bb.getInt();
+		int flags = bb.getInt();
+		if (bb.getLong() != sourceLength || bb.getLong() != sourceModified){
+			return null;
+		}
+		if (bb.capacity() != size(count)){
+			throw new IOException("truncated feature cache");
+		}
+
+		StrokeFeatures features = new StrokeFeatures(count, (flags & COLLECTED) != 0);
+		features.size = count;
+		bb.asCharBuffer().get(features.labels, 0, count);
+		bb.position(bb.position() + pad(count * 2));
+		bb.asIntBuffer().get(features.numstrokes, 0, count)
+		.get(features.reducedStrokes, 0, count * StrokeFeatures.POINTS)
+		.get(features.lengths, 0, count * StrokeFeatures.STROKES)
+		.get(features.angles, 0, count * StrokeFeatures.STROKES)
+		.get(features.moves, 0, count * StrokeFeatures.MOVES);
+		return features;
+	}
+
+	/**
+	 * write
+	 *
+	 * @summary Writes the features of a source file to its cache
+	 *
+	 * @param features - the features to write
+	 * @param source - the file the features came from
+	 * @param cache - where to write them
+	 * @throws IOException
+	 *
+	 * @note the cache is written to a temporary file and renamed, so a crash never leaves a partial cache behind
+	 */
+	public static void write(StrokeFeatures features, File source, File cache) throws IOException{
+		write(features, source.length(), source.lastModified(), cache);
+	}
+
+	/**
+	 * write
+	 *
+	 * @param features - the features to write
+	 * @param sourceLength - the source length to record, or 0 for a standalone export
+	 * @param sourceModified - the source modification time to record, or 0 for a standalone export
+	 * @param cache - where to write them
+	 * @throws IOException
+	 */
+	public static void write(StrokeFeatures features, long sourceLength, long sourceModified, File cache) throws IOException{
+		int count = features.size;
+		File temp = new File(cache.getPath() + ".tmp");
+		MappedByteBuffer bb = map(temp, FileChannel.MapMode.READ_WRITE, size(count));
+
+		bb.putInt(MAGIC);
+		bb.putInt(VERSION);
+		bb.putInt(count);
+		bb.putInt(features.collected ? COLLECTED : 0);
+		bb.putLong(sourceLength);
+		bb.putLong(sourceModified);
+		bb.asCharBuffer().put(features.labels, 0, count);
+		bb.position(bb.position() + pad(count * 2));
+		bb.asIntBuffer().put(features.numstrokes, 0, count)
+		.put(features.reducedStrokes, 0, count * StrokeFeatures.POINTS)
+		.put(features.lengths, 0, count * StrokeFeatures.STROKES)
+		.put(features.angles, 0, count * StrokeFeatures.STROKES)
+		.put(features.moves, 0, count * StrokeFeatures.MOVES);
+		bb.force();
+
+		if (cache.exists() && !cache.delete() || !temp.renameTo(cache)){
+			temp.delete();
+			throw new IOException("could not replace " + cache);
+		}
+	}
+
+	//the int columns start on a 4 byte boundary
+	private static int pad(int bytes){
+		return (bytes + 3) & ~3;
+	}
+
+	private static long size(int count){
+		int ints = count * (1 + StrokeFeatures.POINTS + StrokeFeatures.STROKES * 2 + StrokeFeatures.MOVES);
+		return HEADER + pad(count * 2) + 4L * ints;
+	}
+
+	/**
+	 * map
+	 *
+	 * @param file - the file to map
+	 * @param mode - READ_ONLY maps the whole file, READ_WRITE creates it with the given size
+	 * @param size - the size of a new file
+	 */
+	private static MappedByteBuffer map(File file, FileChannel.MapMode mode, long size) throws IOException{
+		boolean write = mode == FileChannel.MapMode.READ_WRITE;
+		RandomAccessFile raf = new RandomAccessFile(file, write ? "rw" : "r");
+		try {
+			if (write){
+				raf.setLength(size);
+			}
+			return raf.getChannel().map(mode, 0, raf.length());
+		} finally {
+			raf.close();
+		}
+	}
+
+}
@@ -0,0 +1,266 @@
+package utils;
+/**
+ * GBKTable
+ *
+ * Constant time GBK <-> Unicode lookup shared by the whole JVM
+ *
+ * The table is built once, the first time it is used, from the precompiled resource GBKtable.bin
+ * (see main to regenerate it). If the resource is missing it is parsed from GBKtable.txt instead,
+ * and any code neither of them defines is filled in from the JDK's GBK charset.
+ *
+ * Lookups index straight into a char[65536], so they never allocate.
+ *
+ * GBKtable.bin layout (big endian):
+ * int magic "GBK1", int version, int count, then count pairs of (char gbk, char unicode)
+ *
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+
+public class GBKTable {
+
+	public static final String RESOURCE = "GBKtable.bin";
+	public static final String TEXT_TABLE = "GBKtable.txt";
+
+	static final int MAGIC = 0x47424b31;
+	static final int VERSION = 1;
+
+	//GBK hex codes in the text table are 2 to 4 lowercase hex digits
+	private static final Pattern HEX = Pattern.compile("[0-9a-f]{2,4}");
+
+	// gbk code -> unicode character, 0 if undefined
+	private final char[] unicode = new char[65536];
+	// unicode character -> gbk code, 0 if undefined
+	private final char[] gbk = new char[65536];
+
+	//lazy holder: the table is built on first use and safely published to every thread
+	private static class Holder {
+		static final GBKTable TABLE = load();
+	}
+
+	private GBKTable(){
+	}
+
+	/**
+	 * toUnicode
+	 *
+	 * @param code - a GBK code, such as 0xcfc2
+	 * @return the matching character, or 0 if GBK does not define the code
+	 */
+	public static char toUnicode(int code){
+		return Holder.TABLE.unicode[code & 0xffff];
+	}
+
+	/**
+	 * toGBK
+	 *
+	 * @param c - a character
+	 * @return the character's GBK code, or 0 if GBK has no code for it
+	 */
+	public static int toGBK(char c){
+		return Holder.TABLE.gbk[c];
+	}
+
+	/**
+	 * put
+	 *
+	 * Records a pair, keeping the first mapping seen in each direction
+	 */
+	private void put(int code, char c){
+		if (code <= 0 || code > 0xffff || c == 0){
+			return;
+		}
+		if (unicode[code] == 0){
+			unicode[code] = c;
+		}
+		if (gbk[c] == 0){
+			gbk[c] = (char) code;
+		}
+	}
+
+	/**
+	 * load
+	 *
+	 * @summary Builds the table from the best available source
+	 *
+	 * @pseudocode
+	 * 1. Read the precompiled resource, or parse the text table if there is none
+	 * 2. Fill the gaps from the JDK GBK charset
+	 */
+	static GBKTable load(){
+		GBKTable table = new GBKTable();
+
+		//Step 1. precompiled pairs
+		boolean loaded = false;
+		InputStream in = GBKTable.class.getResourceAsStream(RESOURCE);
+		if (in != null){
+			try {
+				table.readBinary(in);
+				loaded = true;
+			} catch (IOException e) {e.printStackTrace();}
+		}
+		if (!loaded && new File(TEXT_TABLE).exists()){
+			try {
+				table.readText(new File(TEXT_TABLE));
+			} catch (IOException e) {e.printStackTrace();}
+		}
+
+		//Step 2. everything else the JDK knows about
+		table.fillFromCharset();
+		return table;
+	}
+
+	/**
+	 * readBinary
+	 *
+	 * Reads pairs from a GBKtable.bin stream and closes it
+	 */
+	void readBinary(InputStream stream) throws IOException{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION){
+				throw new IOException("not a version " + VERSION + " " + RESOURCE);
+			}
+			int count = in.readInt();
+			for (int i = 0; i < count; i++){
+				int code = in.readChar();
+				put(code, in.readChar());
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * readText
+	 *
+	 * @summary Parses the table written by ChineseCharacterLookup.Decode
+	 *
+	 * @param file - GBKtable.txt, where each symbol is on the line above its GBK hex code
+	 * @throws IOException
+	 *
+	 * @note a hex line directly below another hex line has lost its symbol (Decode drops lines starting with "U") and is skipped
+	 */
+	void readText(File file) throws IOException{
+		List<String> lines = FileUtils.readLines(file, "UTF-8");
+		for (int i = 1; i < lines.size(); i++){
+			String hex = lines.get(i);
+			String symbol = lines.get(i - 1);
+			if (HEX.matcher(hex).matches() && symbol.length() == 1 && !HEX.matcher(symbol).matches()){
+				put(Integer.parseInt(hex, 16), symbol.charAt(0));
+			}
+		}
+	}
+
+	/**
+	 * fillFromCharset
+	 *
+	 * Decodes every single byte and two byte GBK code the table does not define yet
+	 */
+	void fillFromCharset(){
+		if (!Charset.isSupported("GBK")){
+			return;
+		}
+		CharsetDecoder decoder = Charset.forName("GBK").newDecoder()
+				.onMalformedInput(CodingErrorAction.REPORT)
+				.onUnmappableCharacter(CodingErrorAction.REPORT);
+		ByteBuffer in = ByteBuffer.allocate(2);
+		CharBuffer out = CharBuffer.allocate(2);
+
+		for (int code = 0x20; code < 0x10000; code++){
+			//single bytes are ascii, two byte codes lead with 0x81 - 0xfe
+			if ((code > 0x7f && code < 0x8100) || unicode[code] != 0){
+				continue;
+			}
+			in.clear();
+			if (code > 0xff){
+				in.put((byte) (code >> 8));
+			}
+			in.put((byte) code);
+			in.flip();
+			out.clear();
+			decoder.reset();
+			if (!decoder.decode(in, out, true).isError() && !decoder.flush(out).isError()
+					&& out.position() == 1 && in.remaining() == 0){
+				put(code, out.get(0));
+			}
+		}
+	}
+
+	/**
+	 * writeBinary
+	 *
+	 * @summary Writes every defined pair as GBKtable.bin
+	 *
+	 * @param file - where to write the table
+	 * @throws IOException
+	 */
+	void writeBinary(File file) throws IOException{
+		int count = 0;
+		for (int code = 0; code < unicode.length; code++){
+			if (unicode[code] != 0){
+				count++;
+			}
+		}
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(count);
+			for (int code = 0; code < unicode.length; code++){
+				if (unicode[code] != 0){
+					out.writeChar(code);
+					out.writeChar(unicode[code]);
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * main
+	 *
+	 * Precompiles GBKtable.txt into the binary resource
+	 *
+	 * @param argv - optional [text table] [output file], defaulting to GBKtable.txt and src/utils/GBKtable.bin
+	 *
+	 * @note the resource is only rewritten when the text table changed (see BuildLedger)
+	 */
+	public static void main(String[] argv) throws IOException{
+		File input = new File(argv.length > 0 ? argv[0] : TEXT_TABLE);
+		File output = new File(argv.length > 1 ? argv[1] : "src/utils/" + RESOURCE);
+		BuildLedger ledger = BuildLedger.open(new File(output.getName() + BuildLedger.EXTENSION));
+		if (ledger.isCurrent(input) && ledger.outputs(input).contains(output.getAbsoluteFile())){
+			System.out.println(output + " is up to date");
+			return;
+		}
+
+		GBKTable table = new GBKTable();
+		table.readText(input);
+		table.fillFromCharset();
+		table.writeBinary(output);
+		ledger.record(input, Collections.singletonList(output));
+		ledger.save();
+		System.out.println("wrote " + output);
+	}
+
+}
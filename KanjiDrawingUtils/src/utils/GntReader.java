@@ -0,0 +1,221 @@
+package utils;
+/**
+ * GntReader
+ *
+ * Reads the bitmaps of a CASIA offline (.gnt) file straight into BinaryRasters
+ *
+ * Each .gnt sample is a grayscale bitmap cropped to the kanji, so no stroke rendering is needed:
+ * the bitmap is scaled uniformly to fit the raster, centered, and every pixel darker than the
+ * paper becomes ink. The file is memory-mapped and walked exactly once, and the label is looked
+ * up in the same GBKTable as the .pot samples.
+ *
+ * Sample layout (see the GNT format in ChineseOnlineHandwritingToJPG):
+ * int sample size (little endian), 2 byte GBK tag code (first byte high),
+ * short width, short height (little endian), then height rows of width gray bytes (255 is paper)
+ *
+ * Usage:
+ *
+ * for (PixelKanji k : new GntReader(file)){ ... }
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import kanjiClasses.BinaryRaster;
+import kanjiClasses.PixelKanji;
+
+import org.apache.commons.io.IOUtils;
+
+public class GntReader implements Iterable<PixelKanji>{
+
+	public static final String EXTENSION = ".gnt";
+
+	//the gray level of blank paper
+	public static final int PAPER = 255;
+
+	static final int HEADER = 10;
+
+	private File file;
+	private SampleFilter filter;
+	private int width;
+	private int height;
+	private int margin;
+
+	/**
+	 * GntReader constructor
+	 *
+	 * Matches the 400x400 rasters of StrokeRasterizer
+	 *
+	 * @param file - the .gnt file to read
+	 */
+	public GntReader(File file){
+		this(file, SampleFilter.ALL, 400, 400, 5);
+	}
+
+	/**
+	 * GntReader constructor
+	 *
+	 * @param file - the .gnt file to read
+	 * @param filter - only samples whose header it accepts are rasterized (a .gnt header has no stroke count, so it is 0)
+	 * @param width - raster width in pixels
+	 * @param height - raster height in pixels
+	 * @param margin - blank pixels kept around the kanji
+	 */
+	public GntReader(File file, SampleFilter filter, int width, int height, int margin){
+		this.file = file;
+		this.filter = filter;
+		this.width = width;
+		this.height = height;
+		this.margin = margin;
+	}
+
+	/**
+	 * iterator
+	 *
+	 * @return an iterator rasterizing one sample per call to next()
+	 *
+	 * @note gzipped and zipped files are read into memory whole instead of being mapped
+	 */
+	public Iterator<PixelKanji> iterator(){
+		ByteBuffer mapped;
+		try {
+			mapped = open();
+		} catch (IOException e) {
+			e.printStackTrace();
+			mapped = ByteBuffer.allocate(0);
+		}
+		final ByteBuffer bb = mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+		return new Iterator<PixelKanji>(){
+			private int next = 0;
+			private int index = 0;
+			private int pending = -1;
+
+			public boolean hasNext(){
+				if (pending < 0){
+					pending = advance();
+				}
+				return pending >= 0;
+			}
+
+			public PixelKanji next(){
+				if (!hasNext()){
+					throw new NoSuchElementException();
+				}
+				int position = pending;
+				pending = -1;
+				PixelKanji k = new PixelKanji(GBKTable.toUnicode(code(bb, position)), rasterize(bb, position));
+				k.source = file.getPath() + "#" + (index - 1);
+				return k;
+			}
+
+			//finds the next accepted sample, skipping rejected ones by their size
+			private int advance(){
+				int limit = bb.limit();
+				while (next + HEADER <= limit){
+					int position = next;
+					long samplesize = bb.getInt(position) & 0xffffffffL;
+					if (samplesize < HEADER || position + samplesize > limit){
+						break;
+					}
+					next = (int) (position + samplesize);
+					index++;
+					if (filter.accept((int) samplesize, code(bb, position), 0)){
+						return position;
+					}
+				}
+				return -1;
+			}
+
+			public void remove(){
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * toPixelKanjis
+	 *
+	 * @return ArrayList<PixelKanji> - every accepted sample, in file order
+	 */
+	public ArrayList<PixelKanji> toPixelKanjis(){
+		ArrayList<PixelKanji> kanjis = new ArrayList<PixelKanji>();
+		for (PixelKanji k : this){
+			kanjis.add(k);
+		}
+		return kanjis;
+	}
+
+	/**
+	 * rasterize
+	 *
+	 * @summary Scales a sample's bitmap into a raster
+	 *
+	 * @param bb - the file, in little endian order
+	 * @param position - the start of the sample
+	 * @return BinaryRaster
+	 *
+	 * @pseudocode
+	 * 1. Read the bitmap size
+	 * 2. Scale it uniformly to fit inside the margin and center it
+	 * 3. Ink every raster pixel whose nearest bitmap pixel is darker than the paper
+	 */
+	BinaryRaster rasterize(ByteBuffer bb, int position){
+		BinaryRaster raster = new BinaryRaster(width, height);
+
+		//Step 1. bitmap size
+		int w = bb.getChar(position + 6);
+		int h = bb.getChar(position + 8);
+		int bitmap = position + HEADER;
+		if (w == 0 || h == 0 || bitmap + w * h > bb.limit()){
+			return raster;
+		}
+
+		//Step 2. uniform scale
+		double scale = Math.min((double) (width - 2 * margin) / w, (double) (height - 2 * margin) / h);
+		int scaledW = Math.max(1, (int) Math.round(w * scale));
+		int scaledH = Math.max(1, (int) Math.round(h * scale));
+		int offsetX = (width - scaledW) / 2;
+		int offsetY = (height - scaledH) / 2;
+		int[] columns = new int[scaledW];
+		for (int x = 0; x < scaledW; x++){
+			columns[x] = Math.min(w - 1, (int) (x / scale));
+		}
+
+		//Step 3. nearest neighbour
+		for (int y = 0; y < scaledH; y++){
+			int row = bitmap + Math.min(h - 1, (int) (y / scale)) * w;
+			for (int x = 0; x < scaledW; x++){
+				if ((bb.get(row + columns[x]) & 0xff) < PAPER){
+					raster.set(offsetX + x, offsetY + y);
+				}
+			}
+		}
+		return raster;
+	}
+
+	//the tag code is stored high byte first, unlike the rest of the header
+	static int code(ByteBuffer bb, int position){
+		return ((bb.get(position + 4) & 0xff) << 8) | (bb.get(position + 5) & 0xff);
+	}
+
+	private ByteBuffer open() throws IOException{
+		if (!CorpusStreams.isCompressed(file)){
+			return PotReader.map(file);
+		}
+		InputStream in = CorpusStreams.open(file, EXTENSION);
+		try {
+			return ByteBuffer.wrap(IOUtils.toByteArray(in));
+		} finally {
+			in.close();
+		}
+	}
+
+}
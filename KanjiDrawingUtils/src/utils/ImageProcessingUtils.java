@@ -27,10 +27,11 @@ import java.awt.image.BufferedImage;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Pattern;
 import javax.imageio.ImageIO;
 
@@ -105,7 +106,8 @@ public class ImageProcessingUtils {
 	 */
 
 	public int[][]bufToPixels(BufferedImage bu){
-		return bufToPixels(bu, 0, 0, 0, 0);
+		//without offsets the whole buffer is binarized in bulk
+		return RasterDecoder.binarize(bu, ".png").toPixels();
 	}
 
 	int[][]bufToPixels(BufferedImage bu, int leftoffset, int topoffset, int rightoffset, int bottomoffset){
@@ -262,7 +264,7 @@ public class ImageProcessingUtils {
 		try{
 			File txtFile = new File(input);
 			String line;
-			BufferedReader br = new BufferedReader(new FileReader(txtFile));
+			BufferedReader br = new BufferedReader(new InputStreamReader(CorpusStreams.open(txtFile, ".txt")));
 
 			//Step 2. read through each line to grab the relevant information
 			while ((line = br.readLine()) != null) {
@@ -336,22 +338,27 @@ public class ImageProcessingUtils {
 	 * @throws IOException
 	 * 
 	 * @pseudocode
-	 * 1. loop through the files
+	 * 1. loop through the files, skipping the ones whose images are up to date
 	 * 2. Read each line to grab the kanji name and the associated image's byte array
 	 * 3. Process the byte array and create the image
+	 * 4. Record the images made from each file, deleting the ones it no longer makes
 	 * 
+	 * @note the BuildLedger is kept in the output folder, so only changed .txt files are converted again
 	 */
 
 	public void textToPNG(String input, String output) {
 
+		File myfile = new File(input);
+		List<File> txtFiles = CorpusLoader.listFiles(myfile, ".txt");
+		BuildLedger ledger = BuildLedger.open(new File(output, BuildLedger.EXTENSION));
 		try{
 			//Step 1. loop through the input files
-			File myfile = new File(input);
-			for (final File txtFile : myfile.listFiles()){
-				if (txtFile.getName().endsWith(".txt")){
+			for (final File txtFile : txtFiles){
+				if (!ledger.isCurrent(txtFile)){
 
+					ArrayList<File> images = new ArrayList<File>();
 					String line;
-					BufferedReader br = new BufferedReader(new FileReader(txtFile));
+					BufferedReader br = new BufferedReader(new InputStreamReader(CorpusStreams.open(txtFile, ".txt")));
 
 					//Step 2. read through each line to grab the relevant information
 					while ((line = br.readLine()) != null) {
@@ -382,15 +389,23 @@ public class ImageProcessingUtils {
 							//Step 3. Process the image and save it.
 							String name = output + "/" + imageName + txtFile.getName().substring(0, txtFile.getName().lastIndexOf(".")) + ".png";
 							byteToScaledImage(byteArray,name, 112, 2, 1, 1);
+							images.add(new File(name));
 						}
 					}
 					br.close();
+
+					//Step 4. Remember what was made
+					ledger.record(txtFile, images);
 				}
 			}
+			ledger.retain(myfile, txtFiles);
 		}
 		catch (IOException e){
 
 		}
+		finally {
+			ledger.save();
+		}
 	}
 
 	//creates all the image files
@@ -0,0 +1,325 @@
+package utils;
+/**
+ * PotIndex
+ *
+ * Sidecar index of where each sample lives in a CASIA .pot file
+ *
+ * Building the index only reads each sample's 8 byte header (size, tag code, stroke count) and
+ * jumps to the next one. The index is saved next to the file as <file>.idx and reused until
+ * the .pot file's length or modification time changes.
+ *
+ * With the index a reader can seek straight to the samples of one label, or of a range of
+ * stroke counts, without decoding anything else.
+ *
+ * Layout (big endian):
+ * header  - int magic "KPI1", int version, int count, long source length, long source modified
+ * columns - int offsets[count], char codes[count], char strokes[count]
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import kanjiClasses.StrokeKanji;
+
+public class PotIndex {
+
+	public static final String EXTENSION = ".idx";
+
+	static final int MAGIC = 0x4b504931;
+	static final int VERSION = 1;
+	static final int HEADER = 28;
+
+	//indexes already loaded by this JVM, by .pot path
+	private static final HashMap<String, PotIndex> loaded = new HashMap<String, PotIndex>();
+
+	private File file;
+	private long sourceLength;
+	private long sourceModified;
+	private int size;
+	// byte offset of each sample
+	private int[] offsets;
+	// GBK tag code of each sample
+	private char[] codes;
+	// number of strokes of each sample
+	private char[] strokes;
+
+	private PotIndex(File file, int size){
+		this.file = file;
+		this.sourceLength = file.length();
+		this.sourceModified = file.lastModified();
+		this.size = size;
+		offsets = new int[size];
+		codes = new char[size];
+		strokes = new char[size];
+	}
+
+	public int size(){
+		return size;
+	}
+
+	public int offset(int sample){
+		return offsets[sample];
+	}
+
+	public int code(int sample){
+		return codes[sample];
+	}
+
+	public int strokes(int sample){
+		return strokes[sample];
+	}
+
+	/**
+	 * indexFile
+	 *
+	 * @param pot - a .pot file
+	 * @return the index file for it
+	 */
+	public static File indexFile(File pot){
+		return new File(pot.getPath() + EXTENSION);
+	}
+
+	/**
+	 * load
+	 *
+	 * @summary Gets the index of a .pot file, building and saving it if needed
+	 *
+	 * @note indexes are kept in memory once loaded, so repeated lookups do not touch the disk
+	 *
+	 * @param pot - a .pot file
+	 * @return PotIndex
+	 * @throws IOException if the .pot file cannot be read, or is compressed
+	 */
+	public static PotIndex load(File pot) throws IOException{
+		String key = pot.getAbsolutePath();
+		synchronized (loaded){
+			PotIndex index = loaded.get(key);
+			if (index != null && index.sourceLength == pot.length() && index.sourceModified == pot.lastModified()){
+				return index;
+			}
+		}
+
+		PotIndex index = loadSidecar(pot);
+		synchronized (loaded){
+			loaded.put(key, index);
+		}
+		return index;
+	}
+
+	private static PotIndex loadSidecar(File pot) throws IOException{
+		File sidecar = indexFile(pot);
+		if (sidecar.isFile()){
+			try {
+				PotIndex index = read(pot, sidecar);
+				if (index != null){
+					return index;
+				}
+			} catch (IOException e) {
+				System.out.println("rebuilding " + sidecar + ": " + e.getMessage());
+			}
+		}
+
+		PotIndex index = build(pot);
+		try {
+			index.write(sidecar);
+		} catch (IOException e) {
+			System.out.println("could not write " + sidecar + ": " + e.getMessage());
+		}
+		return index;
+	}
+
+	/**
+	 * build
+	 *
+	 * @summary Scans the sample headers of a .pot file
+	 *
+	 * @param pot - a .pot file
+	 * @return PotIndex
+	 * @throws IOException
+	 *
+	 * @pseudocode
+	 * 1. Read the size, tag code and stroke count at the start of a sample
+	 * 2. Skip ahead by the sample size
+	 */
+	public static PotIndex build(File pot) throws IOException{
+		if (CorpusStreams.isCompressed(pot)){
+			throw new IOException(pot + " is compressed and cannot be indexed");
+		}
+		ByteBuffer bb = PotReader.map(pot);
+
+		int count = 0;
+		int[] offsets = new int[1024];
+		char[] codes = new char[1024];
+		char[] strokes = new char[1024];
+
+		int position = 0;
+		int limit = bb.limit();
+		while (position + 8 <= limit){
+			if (count == offsets.length){
+				offsets = Arrays.copyOf(offsets, count * 2);
+				codes = Arrays.copyOf(codes, count * 2);
+				strokes = Arrays.copyOf(strokes, count * 2);
+			}
+			//Step 1. header
+			int samplesize = bb.getChar(position);
+			offsets[count] = position;
+			codes[count] = bb.getChar(position + 2);
+			strokes[count] = bb.getChar(position + 6);
+			count++;
+
+			//Step 2. next sample
+			if (samplesize < 8){
+				throw new IOException("corrupt sample at byte " + position + " of " + pot);
+			}
+			position += samplesize;
+		}
+
+		PotIndex index = new PotIndex(pot, count);
+		System.arraycopy(offsets, 0, index.offsets, 0, count);
+		System.arraycopy(codes, 0, index.codes, 0, count);
+		System.arraycopy(strokes, 0, index.strokes, 0, count);
+		return index;
+	}
+
+	/**
+	 * read
+	 *
+	 * @param pot - the .pot file
+	 * @param sidecar - its index file
+	 * @return PotIndex, or null if the index was built from a different version of the .pot file
+	 */
+	static PotIndex read(File pot, File sidecar) throws IOException{
+		RandomAccessFile raf = new RandomAccessFile(sidecar, "r");
+		MappedByteBuffer bb;
+		try {
+			bb = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		} finally {
+			raf.close();
+		}
+
+		if (bb.remaining() < HEADER || bb.getInt() != MAGIC || bb.getInt() != VERSION){
+			throw new IOException("not a version " + VERSION + " index");
+		}
+		int count = bb.getInt();
+		if (bb.getLong() != pot.length() || bb.getLong() != pot.lastModified()){
+			return null;
+		}
+		if (bb.remaining() != count * 8){
+			throw new IOException("truncated index");
+		}
+
+		PotIndex index = new PotIndex(pot, count);
+		bb.asIntBuffer().get(index.offsets);
+		bb.position(bb.position() + count * 4);
+		bb.asCharBuffer().get(index.codes).get(index.strokes);
+		return index;
+	}
+
+	/**
+	 * write
+	 *
+	 * @param sidecar - where to save the index
+	 */
+	void write(File sidecar) throws IOException{
+		File temp = new File(sidecar.getPath() + ".tmp");
+		RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+		try {
+			raf.setLength(HEADER + size * 8L);
+			MappedByteBuffer bb = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+			bb.putInt(MAGIC);
+			bb.putInt(VERSION);
+			bb.putInt(size);
+			bb.putLong(sourceLength);
+			bb.putLong(sourceModified);
+			bb.asIntBuffer().put(offsets, 0, size);
+			bb.position(bb.position() + size * 4);
+			bb.asCharBuffer().put(codes, 0, size).put(strokes, 0, size);
+			bb.force();
+		} finally {
+			raf.close();
+		}
+		if (sidecar.exists() && !sidecar.delete() || !temp.renameTo(sidecar)){
+			temp.delete();
+			throw new IOException("could not replace " + sidecar);
+		}
+	}
+
+	/**
+	 * samplesWithLabel
+	 *
+	 * @param label - the kanji to find
+	 * @return the sample numbers whose tag code is the label's GBK code
+	 */
+	public int[] samplesWithLabel(Character label){
+		int code = GBKTable.toGBK(label);
+		int[] samples = new int[size];
+		int found = 0;
+		for (int i = 0; i < size; i++){
+			if (codes[i] == code || (code == 0 && GBKTable.toUnicode(codes[i]) == label)){
+				samples[found++] = i;
+			}
+		}
+		return Arrays.copyOf(samples, found);
+	}
+
+	/**
+	 * samplesWithStrokes
+	 *
+	 * @param min - the fewest strokes
+	 * @param max - the most strokes
+	 * @return the sample numbers with min <= strokes <= max
+	 */
+	public int[] samplesWithStrokes(int min, int max){
+		return samples(SampleFilter.strokes(min, max));
+	}
+
+	/**
+	 * samples
+	 *
+	 * @param filter - the headers to keep
+	 * @return the sample numbers whose header the filter accepts
+	 */
+	public int[] samples(SampleFilter filter){
+		int[] samples = new int[size];
+		int found = 0;
+		for (int i = 0; i < size; i++){
+			int samplesize = (i + 1 < size ? offsets[i + 1] : (int) sourceLength) - offsets[i];
+			if (filter.accept(samplesize, codes[i], (short) strokes[i])){
+				samples[found++] = i;
+			}
+		}
+		return Arrays.copyOf(samples, found);
+	}
+
+	/**
+	 * decode
+	 *
+	 * @summary Decodes only the given samples
+	 *
+	 * @param samples - sample numbers, as returned by samplesWithLabel or samplesWithStrokes
+	 * @return the decoded kanjis, in the same order
+	 * @throws IOException
+	 */
+	public ArrayList<StrokeKanji> decode(int[] samples) throws IOException{
+		ArrayList<StrokeKanji> kanjis = new ArrayList<StrokeKanji>(samples.length);
+		if (samples.length == 0){
+			return kanjis;
+		}
+		ByteBuffer bb = PotReader.map(file);
+		ChineseOnlineHandwritingToJPG decoder = new ChineseOnlineHandwritingToJPG();
+		for (int sample : samples){
+			bb.position(offsets[sample]);
+			kanjis.add(decoder.decodeToStrokes(bb));
+		}
+		return kanjis;
+	}
+
+}
@@ -0,0 +1,315 @@
+package utils;
+/**
+ * PotReader
+ *
+ * Streams handwriting samples out of a CASIA online (.pot) file one at a time
+ *
+ * The file is memory-mapped and walked exactly once. Each call to next() decodes
+ * a single sample, so callers can consume a file incrementally instead of holding
+ * every StrokeKanji in an array.
+ *
+ * Usage:
+ *
+ * for (StrokeKanji k : new PotReader(file)){ ... }
+ *
+ * A SampleFilter skips unwanted samples using only their headers. Gzipped and zipped
+ * files are streamed instead of mapped (see CorpusStreams).
+ *
+ **/
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import kanjiClasses.StrokeFeatures;
+import kanjiClasses.StrokeKanji;
+
+public class PotReader implements Iterable<StrokeKanji>{
+
+	private File file;
+	private ChineseOnlineHandwritingToJPG decoder;
+	private SampleFilter filter;
+	private boolean keepPoints;
+
+	/**
+	 * PotReader constructor
+	 *
+	 * @param file - the .pot file to read
+	 */
+	public PotReader(File file){
+		this(file, null);
+	}
+
+	/**
+	 * PotReader constructor
+	 *
+	 * @param file - the .pot file to read
+	 * @param decoder - the decoder to reuse, or null to create one per iterator
+	 */
+	public PotReader(File file, ChineseOnlineHandwritingToJPG decoder){
+		this(file, decoder, SampleFilter.ALL);
+	}
+
+	/**
+	 * PotReader constructor
+	 *
+	 * @param file - the .pot file to read
+	 * @param decoder - the decoder to reuse, or null to create one per iterator
+	 * @param filter - only samples whose header it accepts are decoded
+	 */
+	public PotReader(File file, ChineseOnlineHandwritingToJPG decoder, SampleFilter filter){
+		this(file, decoder, filter, false);
+	}
+
+	/**
+	 * PotReader constructor
+	 *
+	 * @param file - the .pot file to read
+	 * @param decoder - the decoder to reuse, or null to create one per iterator
+	 * @param filter - only samples whose header it accepts are decoded
+	 * @param keepPoints - whether each kanji keeps its fullStrokes, as StrokeRasterizer needs
+	 */
+	public PotReader(File file, ChineseOnlineHandwritingToJPG decoder, SampleFilter filter, boolean keepPoints){
+		this.file = file;
+		this.decoder = decoder;
+		this.filter = filter;
+		this.keepPoints = keepPoints;
+	}
+
+	/**
+	 * map
+	 *
+	 * @summary Maps a whole file read-only in little endian order
+	 *
+	 * @param file - the file to map
+	 * @return the mapped buffer, positioned at 0
+	 * @throws IOException
+	 *
+	 * @note the mapping stays valid after the channel is closed
+	 */
+	public static MappedByteBuffer map(File file) throws IOException{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer bb = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			bb.order(ByteOrder.LITTLE_ENDIAN);
+			return bb;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * iterator
+	 *
+	 * @return an iterator decoding one sample per call to next()
+	 */
+	public Iterator<StrokeKanji> iterator(){
+		final ChineseOnlineHandwritingToJPG dh = decoder != null ? decoder : new ChineseOnlineHandwritingToJPG();
+		final SampleBuffers samples = sampleBuffers();
+		return new Iterator<StrokeKanji>(){
+			public boolean hasNext(){
+				return samples.hasNext();
+			}
+
+			public StrokeKanji next(){
+				return dh.decodeToStrokes(samples.next(), keepPoints);
+			}
+
+			public void remove(){
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * sampleBuffers
+	 *
+	 * @summary Iterates over the raw bytes of each accepted sample
+	 *
+	 * @return an iterator of buffers, each positioned at the start of one sample and in little endian order
+	 *
+	 * @note a buffer is only valid until the next call to hasNext() - compressed files reuse one buffer for every sample
+	 */
+	public SampleBuffers sampleBuffers(){
+		try {
+			if (CorpusStreams.isCompressed(file)){
+				return new StreamedSamples(CorpusStreams.open(file, ".pot"), filter);
+			}
+			return new MappedSamples(map(file), filter);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return new MappedSamples(ByteBuffer.allocate(0), filter);
+		}
+	}
+
+	/**
+	 * readFeatures
+	 *
+	 * @summary Decodes every accepted sample straight into a feature matrix
+	 *
+	 * @return StrokeFeatures - one row per sample, in file order
+	 * @throws IOException
+	 *
+	 * @note one scratch buffer serves the whole file, so no StrokeKanji or point array is made per sample
+	 */
+	public StrokeFeatures readFeatures() throws IOException{
+		ChineseOnlineHandwritingToJPG dh = decoder != null ? decoder : new ChineseOnlineHandwritingToJPG();
+		StrokeFeatures features = new StrokeFeatures(1024, false);
+		int[] points = new int[ChineseOnlineHandwritingToJPG.MAX_POINTS];
+
+		SampleBuffers samples = sampleBuffers();
+		while (samples.hasNext()){
+			dh.decodeToFeatures(samples.next(), features, points);
+		}
+		return features;
+	}
+
+	/**
+	 * SampleBuffers
+	 *
+	 * Finds each sample whose header the filter accepts
+	 */
+	public static abstract class SampleBuffers implements Iterator<ByteBuffer>{
+
+		protected SampleFilter filter;
+		private ByteBuffer pending;
+
+		SampleBuffers(SampleFilter filter){
+			this.filter = filter;
+		}
+
+		/**
+		 * advance
+		 *
+		 * @return the next accepted sample, or null at the end of the file
+		 */
+		abstract ByteBuffer advance();
+
+		public boolean hasNext(){
+			if (pending == null){
+				pending = advance();
+			}
+			return pending != null;
+		}
+
+		public ByteBuffer next(){
+			if (!hasNext()){
+				throw new NoSuchElementException();
+			}
+			ByteBuffer sample = pending;
+			pending = null;
+			return sample;
+		}
+
+		public void remove(){
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * MappedSamples
+	 *
+	 * Walks a mapped file in place
+	 *
+	 * @note rejected samples are skipped by their size, reading only their 8 byte header
+	 */
+	private static class MappedSamples extends SampleBuffers{
+
+		private ByteBuffer bb;
+		private int next = 0;
+
+		MappedSamples(ByteBuffer bb, SampleFilter filter){
+			super(filter);
+			this.bb = bb;
+		}
+
+		ByteBuffer advance(){
+			int limit = bb.limit();
+			while (next + 8 <= limit){
+				int position = next;
+				int samplesize = bb.getChar(position);
+				if (samplesize < 8){
+					break;
+				}
+				next = Math.min(position + samplesize, limit);
+				if (filter.accept(samplesize, bb.getChar(position + 2), bb.getShort(position + 6))){
+					bb.position(position);
+					return bb;
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * StreamedSamples
+	 *
+	 * Reads a compressed file one sample at a time into a single reusable buffer
+	 *
+	 * @note the stream is closed when its last sample has been read
+	 */
+	private static class StreamedSamples extends SampleBuffers{
+
+		private InputStream in;
+		//a sample is at most 65535 bytes
+		private byte[] bytes = new byte[1 << 16];
+		private ByteBuffer bb = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+
+		StreamedSamples(InputStream in, SampleFilter filter){
+			super(filter);
+			this.in = in;
+		}
+
+		ByteBuffer advance(){
+			try {
+				while (in != null && readFully(0, 8)){
+					int samplesize = bb.getChar(0);
+					if (samplesize < 8 || !readFully(8, samplesize - 8)){
+						break;
+					}
+					if (filter.accept(samplesize, bb.getChar(2), bb.getShort(6))){
+						bb.limit(samplesize);
+						bb.position(0);
+						return bb;
+					}
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			close();
+			return null;
+		}
+
+		//false at the end of the stream
+		private boolean readFully(int offset, int length) throws IOException{
+			bb.clear();
+			while (length > 0){
+				int n = in.read(bytes, offset, length);
+				if (n < 0){
+					return false;
+				}
+				offset += n;
+				length -= n;
+			}
+			return true;
+		}
+
+		private void close(){
+			if (in != null){
+				try {
+					in.close();
+				} catch (IOException e) {e.printStackTrace();}
+				in = null;
+			}
+		}
+	}
+
+}
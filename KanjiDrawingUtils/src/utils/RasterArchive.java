@@ -0,0 +1,338 @@
+package utils;
+/**
+ * RasterArchive
+ *
+ * A whole folder of kanji images in one file, binarized and packed back to back
+ *
+ * Reading a folder of thousands of .jpg or .png files costs a directory scan plus an open and an
+ * image decode for every sample. The archive does that work once: every image is binarized
+ * into a BinaryRaster and the rasters are stored one after the other behind an index of labels.
+ * Every raster has the same size, so raster i starts at a fixed stride from the first one.
+ * The archive is memory-mapped when it is read, in windows of whole rasters up to 1 GB each so
+ * an archive may be larger than one mapping can address, and a raster is only copied out of the
+ * mapping when its kanji's pixels are first needed (through the RasterCache, like an image).
+ *
+ * Ink is decided the same way the classifiers read each image type (see RasterDecoder.binarize).
+ *
+ * Layout (big endian):
+ * header  - int magic "KRA1", int version, int count, int width, int height, int words per raster
+ * index   - char labels[count] (padded to 8 bytes)
+ * rasters - long words[count * words per raster]
+ *
+ * Usage:
+ *
+ * RasterArchive.build(new File("./chinatrainlite"), ".jpg", new File("./chinatrainlite.kra"));
+ * ArrayList<PixelKanji> kanjis = RasterArchive.open(new File("./chinatrainlite.kra")).toPixelKanjis();
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import kanjiClasses.BinaryRaster;
+import kanjiClasses.PixelKanji;
+
+public class RasterArchive {
+
+	public static final String EXTENSION = ".kra";
+
+	static final int MAGIC = 0x4b524131;
+	static final int VERSION = 1;
+	static final int HEADER = 24;
+	//images decoded at a time while building, so only one batch of rasters is on the heap
+	static final int BATCH = 256;
+	//the most bytes of rasters mapped at once
+	static final long WINDOW = 1L << 30;
+
+	//archives already mapped, by path, for reading kanji sources
+	private static final ConcurrentHashMap<String, RasterArchive> opened = new ConcurrentHashMap<String, RasterArchive>();
+
+	private File file;
+	private int count;
+	private int width;
+	private int height;
+	private int words;
+	private char[] labels;
+	// the rasters, perWindow to a mapping
+	private ArrayList<LongBuffer> windows = new ArrayList<LongBuffer>();
+	private int perWindow;
+
+	private RasterArchive(File file){
+		this.file = file;
+	}
+
+	public int size(){
+		return count;
+	}
+
+	public Character label(int i){
+		return labels[i];
+	}
+
+	/**
+	 * raster
+	 *
+	 * @param i - the sample number
+	 * @return BinaryRaster - a copy of the sample's raster
+	 */
+	public BinaryRaster raster(int i){
+		BinaryRaster raster = new BinaryRaster(width, height);
+		LongBuffer view = windows.get(i / perWindow).duplicate();
+		view.position((i % perWindow) * words);
+		view.get(raster.words);
+		return raster;
+	}
+
+	/**
+	 * toPixelKanjis
+	 *
+	 * @return ArrayList<PixelKanji> - every sample, in archive order, with no raster yet: each one's source
+	 * names its place in the archive and its raster is read from the mapping when first needed (see read)
+	 */
+	public ArrayList<PixelKanji> toPixelKanjis(){
+		opened.putIfAbsent(file.getPath(), this);
+		ArrayList<PixelKanji> kanjis = new ArrayList<PixelKanji>(count);
+		for (int i = 0; i < count; i++){
+			PixelKanji k = new PixelKanji(labels[i]);
+			k.source = file.getPath() + "#" + i;
+			k.width = width;
+			k.height = height;
+			kanjis.add(k);
+		}
+		return kanjis;
+	}
+
+	/**
+	 * isEntry
+	 *
+	 * @param source - a kanji's source
+	 * @return whether the source names a raster in an archive, as toPixelKanjis names them
+	 */
+	public static boolean isEntry(String source){
+		int hash = source.lastIndexOf('#');
+		return hash > 0 && source.substring(0, hash).endsWith(EXTENSION);
+	}
+
+	/**
+	 * read
+	 *
+	 * @param source - an archive entry, "archive.kra#i"
+	 * @return BinaryRaster - a copy of the entry's raster, mapping the archive the first time it is read
+	 * @throws IOException if the archive cannot be opened or has no such entry
+	 */
+	public static BinaryRaster read(String source) throws IOException{
+		int hash = source.lastIndexOf('#');
+		String path = source.substring(0, hash);
+		RasterArchive archive = opened.get(path);
+		if (archive == null){
+			opened.putIfAbsent(path, open(new File(path)));
+			archive = opened.get(path);
+		}
+		int i;
+		try {
+			i = Integer.parseInt(source.substring(hash + 1));
+		} catch (NumberFormatException e) {
+			throw new IOException("not an archive entry: " + source);
+		}
+		if (i < 0 || i >= archive.count){
+			throw new IOException("no entry " + i + " in " + path);
+		}
+		return archive.raster(i);
+	}
+
+	/**
+	 * open
+	 *
+	 * @summary Maps an archive and reads its index
+	 *
+	 * @param archive - the archive file
+	 * @return RasterArchive
+	 * @throws IOException if the file is not an archive of this version
+	 *
+	 * @pseudocode
+	 * 1. Read the header and the labels
+	 * 2. Map the rasters a window at a time, each window a whole number of rasters
+	 */
+	public static RasterArchive open(File archive) throws IOException{
+		RandomAccessFile raf = new RandomAccessFile(archive, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			//Step 1. index
+			ByteBuffer header = ByteBuffer.allocate(HEADER);
+			if (raf.length() < HEADER || read(channel, header, 0) < HEADER || header.getInt(0) != MAGIC || header.getInt(4) != VERSION){
+				throw new IOException(archive + " is not a version " + VERSION + " raster archive");
+			}
+			RasterArchive ra = new RasterArchive(archive);
+			ra.count = header.getInt(8);
+			ra.width = header.getInt(12);
+			ra.height = header.getInt(16);
+			ra.words = header.getInt(20);
+			if (ra.count < 0 || ra.words < 0 || raf.length() != size(ra.count, ra.words)){
+				throw new IOException("truncated raster archive " + archive);
+			}
+			ByteBuffer labels = ByteBuffer.allocate(ra.count * 2);
+			read(channel, labels, HEADER);
+			ra.labels = new char[ra.count];
+			labels.asCharBuffer().get(ra.labels);
+
+			//Step 2. rasters
+			long stride = 8L * ra.words;
+			ra.perWindow = (int) Math.min(Integer.MAX_VALUE, Math.max(1, WINDOW / Math.max(1, stride)));
+			long base = HEADER + pad(ra.count * 2L);
+			for (int first = 0; first < ra.count; first += ra.perWindow){
+				int rasters = Math.min(ra.perWindow, ra.count - first);
+				MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, base + first * stride, rasters * stride);
+				ra.windows.add(window.asLongBuffer());
+			}
+			return ra;
+		} finally {
+			raf.close();
+		}
+	}
+
+	//fills the buffer from the position, returning the bytes read
+	private static int read(FileChannel channel, ByteBuffer bb, long position) throws IOException{
+		while (bb.hasRemaining()){
+			if (channel.read(bb, position + bb.position()) < 0){
+				break;
+			}
+		}
+		int read = bb.position();
+		bb.flip();
+		return read;
+	}
+
+	//writes the whole buffer at the position
+	private static void write(FileChannel channel, ByteBuffer bb, long position) throws IOException{
+		bb.flip();
+		while (bb.hasRemaining()){
+			channel.write(bb, position + bb.position());
+		}
+	}
+
+	/**
+	 * build
+	 *
+	 * @summary Converts a folder of images into an archive
+	 *
+	 * @param folder - the image folder; each image's label is the first character of its name
+	 * @param fileType - ".jpg" or ".png"
+	 * @param archive - where to write the archive
+	 * @return int - the number of images archived
+	 * @throws IOException
+	 *
+	 * @pseudocode
+	 * 1. Binarize the images a batch at a time in parallel, kept in name order
+	 * 2. Once the first batch gives the raster size, write the header and the labels
+	 * 3. Write each batch's rasters after the previous ones, then let the batch go
+	 *
+	 * @note the file is written through its channel, not mapped, so its size is only limited by the disk
+	 */
+	public static int build(File folder, String fileType, File archive) throws IOException{
+
+		List<File> images = CorpusLoader.listFiles(folder, fileType);
+		int count = images.size();
+		char[] labels = new char[count];
+		for (int i = 0; i < count; i++){
+			labels[i] = images.get(i).getName().charAt(0);
+		}
+
+		File temp = new File(archive.getPath() + ".tmp");
+		RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+		try {
+			FileChannel channel = raf.getChannel();
+			raf.setLength(0);
+			long position = -1;
+			int width = 0;
+			int height = 0;
+			for (int first = 0; first < count; first += BATCH){
+				//Step 1. binarize
+				List<File> batch = images.subList(first, Math.min(count, first + BATCH));
+				List<BinaryRaster> rasters = RasterDecoder.shared().readAll(batch, fileType);
+				ByteBuffer out = null;
+				for (int i = 0; i < batch.size(); i++){
+					BinaryRaster raster = rasters.get(i);
+					if (raster == null){
+						throw new IOException("could not read " + batch.get(i));
+					}
+
+					//Step 2. header
+					if (position < 0){
+						width = raster.width;
+						height = raster.height;
+						position = start(channel, labels, width, height);
+					} else if (raster.width != width || raster.height != height){
+						throw new IOException(batch.get(i) + " is not " + width + "x" + height);
+					}
+
+					//Step 3. rasters
+					if (out == null){
+						out = ByteBuffer.allocate(8 * raster.words.length * batch.size());
+					}
+					out.asLongBuffer().put(raster.words);
+					out.position(out.position() + 8 * raster.words.length);
+				}
+				int bytes = out.position();
+				write(channel, out, position);
+				position += bytes;
+			}
+			if (position < 0){
+				start(channel, labels, 0, 0);
+			}
+			channel.force(true);
+		} finally {
+			raf.close();
+		}
+		if (archive.exists() && !archive.delete() || !temp.renameTo(archive)){
+			temp.delete();
+			throw new IOException("could not replace " + archive);
+		}
+		opened.remove(archive.getPath());
+		return count;
+	}
+
+	//writes the header and labels, returning where the first raster goes
+	private static long start(FileChannel channel, char[] labels, int width, int height) throws IOException{
+		int words = (width * height + 63) >>> 6;
+		long base = HEADER + pad(labels.length * 2L);
+		ByteBuffer bb = ByteBuffer.allocate((int) base);
+		bb.putInt(MAGIC);
+		bb.putInt(VERSION);
+		bb.putInt(labels.length);
+		bb.putInt(width);
+		bb.putInt(height);
+		bb.putInt(words);
+		bb.asCharBuffer().put(labels);
+		bb.position((int) base);
+		write(channel, bb, 0);
+		return base;
+	}
+
+	//the rasters start on an 8 byte boundary
+	private static long pad(long bytes){
+		return (bytes + 7) & ~7L;
+	}
+
+	private static long size(int count, int words){
+		return HEADER + pad(count * 2L) + 8L * count * words;
+	}
+
+	/**
+	 * main
+	 *
+	 * Converts an image folder: RasterArchive <folder> <.jpg|.png> <archive>
+	 */
+	public static void main(String[] args) throws IOException{
+		int count = build(new File(args[0]), args[1], new File(args[2]));
+		System.out.println("archived " + count + " images to " + args[2]);
+	}
+
+}
@@ -0,0 +1,230 @@
+package utils;
+/**
+ * RasterCache
+ *
+ * Keeps decoded kanji images in memory, so each image file is read and binarized at most once
+ *
+ * Rasters are kept by source path, least recently used first out, until their total size
+ * reaches the capacity. Sources that could not be decoded are remembered too, so they are not
+ * read again on every request. Threads asking for an image that another thread is already decoding
+ * wait for that decode instead of starting their own. Hits, misses and evictions are counted
+ * so a run can report how well the cache did.
+ *
+ * The cache suits sources that come and go, such as queries. A set that is scanned over and
+ * over, such as a training set, should be pinned on its kanjis instead (see PixelKanji.pin):
+ * once such a set is larger than the cache, least recently used order evicts every raster just
+ * before it is needed again.
+ *
+ * Usage:
+ *
+ * BinaryRaster pixels = RasterCache.shared().get(kanji.source);
+ * System.out.println(RasterCache.shared());
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import kanjiClasses.BinaryRaster;
+
+public class RasterCache {
+
+	//256 MB holds about 13,000 400x400 rasters
+	public static final long DEFAULT_CAPACITY = 256L << 20;
+
+	//the per raster cost besides its words: the object, the array header and the map entry
+	static final int OVERHEAD = 128;
+
+	private static final RasterCache shared = new RasterCache(DEFAULT_CAPACITY);
+
+	private long capacity;
+	private long bytes = 0;
+	// in access order, so the first entry is the least recently used
+	private LinkedHashMap<String, BinaryRaster> rasters = new LinkedHashMap<String, BinaryRaster>(1024, 0.75f, true);
+	// decodes in progress, by source
+	private HashMap<String, FutureTask<BinaryRaster>> loading = new HashMap<String, FutureTask<BinaryRaster>>();
+	// sources that could not be decoded
+	private HashSet<String> failed = new HashSet<String>();
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	/**
+	 * RasterCache constructor
+	 *
+	 * @param capacity - the most bytes of rasters to keep
+	 */
+	public RasterCache(long capacity){
+		this.capacity = capacity;
+	}
+
+	/**
+	 * shared
+	 *
+	 * @return the cache used by PixelKanji
+	 */
+	public static RasterCache shared(){
+		return shared;
+	}
+
+	/**
+	 * get
+	 *
+	 * @summary Gets an image's raster, decoding it if it is not cached
+	 *
+	 * @param source - the path of a .jpg or .png image
+	 * @return BinaryRaster - the raster, or null if the image cannot be read
+	 *
+	 * @pseudocode
+	 * 1. Return the cached raster, or null for a source that failed before, or join a decode already in progress
+	 * 2. Otherwise decode the image on this thread
+	 * 3. Cache the raster, evicting the least recently used ones past the capacity, or remember the failure
+	 *
+	 * @note the raster is shared - callers must not change it
+	 */
+	public BinaryRaster get(final String source){
+		//Step 1. cached or in progress
+		FutureTask<BinaryRaster> task;
+		boolean owner = false;
+		synchronized (this){
+			BinaryRaster raster = rasters.get(source);
+			if (raster != null || failed.contains(source)){
+				hits++;
+				return raster;
+			}
+			task = loading.get(source);
+			if (task == null){
+				misses++;
+				task = new FutureTask<BinaryRaster>(new Callable<BinaryRaster>(){
+					public BinaryRaster call() throws IOException{
+						return decode(source);
+					}
+				});
+				loading.put(source, task);
+				owner = true;
+			}else{
+				hits++;
+			}
+		}
+
+		//Step 2. decode
+		if (owner){
+			task.run();
+		}
+		BinaryRaster raster = null;
+		try {
+			raster = task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			e.getCause().printStackTrace();
+		}
+
+		//Step 3. keep
+		if (owner){
+			synchronized (this){
+				loading.remove(source);
+				if (raster != null){
+					put(source, raster);
+				}else{
+					failed.add(source);
+				}
+			}
+		}
+		return raster;
+	}
+
+	/**
+	 * decode
+	 *
+	 * @param source - the path of a .jpg or .png image, or an entry of a RasterArchive
+	 * @return BinaryRaster - the binarized image (see RasterDecoder.binarize), or null if it is not an image
+	 * @throws IOException
+	 */
+	public static BinaryRaster decode(String source) throws IOException{
+		if (RasterArchive.isEntry(source)){
+			return RasterArchive.read(source);
+		}
+		return RasterDecoder.shared().read(new File(source), null);
+	}
+
+	//adds a raster and evicts from the old end until the cache fits, always keeping the newest
+	private void put(String source, BinaryRaster raster){
+		BinaryRaster previous = rasters.put(source, raster);
+		if (previous != null){
+			bytes -= size(previous);
+		}
+		bytes += size(raster);
+
+		Iterator<Map.Entry<String, BinaryRaster>> it = rasters.entrySet().iterator();
+		while (bytes > capacity && rasters.size() > 1){
+			Map.Entry<String, BinaryRaster> eldest = it.next();
+			bytes -= size(eldest.getValue());
+			it.remove();
+			evictions++;
+		}
+	}
+
+	private static long size(BinaryRaster raster){
+		return 8L * raster.words.length + OVERHEAD;
+	}
+
+	/**
+	 * setCapacity
+	 *
+	 * @param capacity - the most bytes of rasters to keep; lowering it evicts at the next insert
+	 */
+	public synchronized void setCapacity(long capacity){
+		this.capacity = capacity;
+	}
+
+	/**
+	 * clear
+	 *
+	 * Forgets every raster and failure and resets the counters
+	 */
+	public synchronized void clear(){
+		rasters.clear();
+		failed.clear();
+		bytes = 0;
+		hits = 0;
+		misses = 0;
+		evictions = 0;
+	}
+
+	public synchronized int size(){
+		return rasters.size();
+	}
+
+	public synchronized long bytes(){
+		return bytes;
+	}
+
+	public synchronized long hits(){
+		return hits;
+	}
+
+	public synchronized long misses(){
+		return misses;
+	}
+
+	public synchronized long evictions(){
+		return evictions;
+	}
+
+	public synchronized String toString(){
+		long requests = hits + misses;
+		return "raster cache: " + rasters.size() + " rasters, " + (bytes >> 10) + " KB, hits: " + hits + " misses: " + misses
+				+ " evictions: " + evictions + " hit rate: " + (requests == 0 ? 0 : (double) hits / requests);
+	}
+
+}
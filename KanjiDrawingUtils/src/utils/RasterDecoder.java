@@ -0,0 +1,283 @@
+package utils;
+/**
+ * RasterDecoder
+ *
+ * Reads kanji images and binarizes them in bulk, straight from the image's data buffer
+ *
+ * BufferedImage.getRGB converts every pixel through the image's color model. For the image types
+ * the datasets use (TYPE_3BYTE_BGR jpgs, TYPE_4BYTE_ABGR pngs, TYPE_INT_ARGB screenshots, gray
+ * scans) the ink test is made on the raw bytes or ints instead, in one pass that packs 64 pixels
+ * into each word of a BinaryRaster. Any other layout falls back to getRGB.
+ *
+ * Ink follows the rules the classifiers already used:
+ * .png - the pixel's ARGB value is not 0 (ImageProcessingUtils.bufToPixels)
+ * .jpg - the pixel's first byte is not 255 (PixelKanji.toPixelsFromData)
+ *
+ * ImageReaders are kept in a pool per file suffix and reused, so a folder can be decoded on
+ * several threads without creating a reader (and its plugin lookup) per image.
+ *
+ * Usage:
+ *
+ * BinaryRaster pixels = RasterDecoder.shared().read(file, ".jpg");
+ * List<BinaryRaster> all = RasterDecoder.shared().readAll(files, ".png");
+ *
+ */
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import kanjiClasses.BinaryRaster;
+
+public class RasterDecoder {
+
+	private static final RasterDecoder shared = new RasterDecoder(Runtime.getRuntime().availableProcessors());
+
+	private int threads;
+	// idle readers, by lower case file suffix
+	private ConcurrentHashMap<String, ConcurrentLinkedQueue<ImageReader>> readers = new ConcurrentHashMap<String, ConcurrentLinkedQueue<ImageReader>>();
+
+	/**
+	 * RasterDecoder constructor
+	 *
+	 * @param threads - the number of threads readAll decodes on
+	 */
+	public RasterDecoder(int threads){
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * shared
+	 *
+	 * @return the decoder used by RasterCache, decoding on every core
+	 */
+	public static RasterDecoder shared(){
+		return shared;
+	}
+
+	/**
+	 * read
+	 *
+	 * @param file - a .jpg or .png image
+	 * @param fileType - the ink rule to use, or null to use the file's own extension
+	 * @return BinaryRaster - the binarized image, or null if the file is not an image
+	 * @throws IOException
+	 */
+	public BinaryRaster read(File file, String fileType) throws IOException{
+		BufferedImage image = readImage(file);
+		if (image == null){
+			return null;
+		}
+		return binarize(image, fileType != null ? fileType : typeOf(file.getName()));
+	}
+
+	/**
+	 * readAll
+	 *
+	 * @summary Decodes a list of images in parallel
+	 *
+	 * @param files - the images
+	 * @param fileType - the ink rule to use, or null to use each file's own extension
+	 * @return the rasters, in the order of the files (null for files that are not images)
+	 * @throws IOException if an image cannot be read
+	 */
+	public List<BinaryRaster> readAll(List<File> files, final String fileType) throws IOException{
+		ArrayList<BinaryRaster> rasters = new ArrayList<BinaryRaster>(files.size());
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, files.size())));
+		try {
+			ArrayList<Future<BinaryRaster>> results = new ArrayList<Future<BinaryRaster>>(files.size());
+			for (final File file : files){
+				results.add(pool.submit(new Callable<BinaryRaster>(){
+					public BinaryRaster call() throws IOException{
+						return read(file, fileType);
+					}
+				}));
+			}
+			for (Future<BinaryRaster> result : results){
+				rasters.add(result.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new IOException("could not decode images", e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+		return rasters;
+	}
+
+	/**
+	 * readImage
+	 *
+	 * @summary Reads an image with a pooled reader
+	 *
+	 * @param file - an image file
+	 * @return BufferedImage, or null if no reader understands it
+	 * @throws IOException
+	 */
+	public BufferedImage readImage(File file) throws IOException{
+		String name = file.getName();
+		String suffix = name.substring(name.lastIndexOf('.') + 1).toLowerCase();
+		ConcurrentLinkedQueue<ImageReader> pool = readers.get(suffix);
+		if (pool == null){
+			readers.putIfAbsent(suffix, new ConcurrentLinkedQueue<ImageReader>());
+			pool = readers.get(suffix);
+		}
+
+		ImageReader reader = pool.poll();
+		if (reader == null){
+			Iterator<ImageReader> found = ImageIO.getImageReadersBySuffix(suffix);
+			if (!found.hasNext()){
+				return ImageIO.read(file);
+			}
+			reader = found.next();
+		}
+
+		ImageInputStream in = ImageIO.createImageInputStream(file);
+		if (in == null){
+			pool.offer(reader);
+			throw new IOException("could not open " + file);
+		}
+		try {
+			reader.setInput(in, true, true);
+			return reader.read(0);
+		} finally {
+			reader.setInput(null);
+			in.close();
+			pool.offer(reader);
+		}
+	}
+
+	/**
+	 * binarize
+	 *
+	 * @summary Packs an image's ink into a raster in one pass over its data buffer
+	 *
+	 * @param image - a kanji image
+	 * @param fileType - ".jpg" or ".png", which decides what counts as ink
+	 * @return BinaryRaster
+	 *
+	 * @pseudocode
+	 * 1. Recognize the buffer layout, or fall back to getRGB
+	 * 2. Test each pixel's raw value and set its bit
+	 */
+	public static BinaryRaster binarize(BufferedImage image, String fileType){
+		int width = image.getWidth();
+		int height = image.getHeight();
+		BinaryRaster raster = new BinaryRaster(width, height);
+		int n = width * height;
+		boolean jpg = fileType.equals(".jpg");
+
+		//Step 1. layout - only whole, interleaved buffers can be walked directly
+		DataBuffer data = image.getRaster().getDataBuffer();
+		int bands = image.getRaster().getNumBands();
+		boolean whole = image.getRaster().getParent() == null && data.getNumBanks() == 1 && data.getOffset() == 0;
+
+		if (whole && data instanceof DataBufferByte && data.getSize() == n * bands){
+			byte[] bytes = ((DataBufferByte) data).getData();
+			if (jpg){
+				//Step 2. the first byte of each pixel
+				for (int i = 0; i < n; i++){
+					if (bytes[i * bands] != (byte) 255){
+						raster.words[i >>> 6] |= 1L << i;
+					}
+				}
+				return raster;
+			}
+			if (image.getType() == BufferedImage.TYPE_4BYTE_ABGR){
+				//Step 2. any non zero byte gives a non zero ARGB value
+				for (int i = 0, b = 0; i < n; i++, b += 4){
+					if ((bytes[b] | bytes[b + 1] | bytes[b + 2] | bytes[b + 3]) != 0){
+						raster.words[i >>> 6] |= 1L << i;
+					}
+				}
+				return raster;
+			}
+			if (isOpaque(image)){
+				fill(raster);
+				return raster;
+			}
+		}
+
+		if (whole && data instanceof DataBufferInt && data.getSize() == n){
+			int[] ints = ((DataBufferInt) data).getData();
+			int type = image.getType();
+			if (jpg && (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)){
+				//Step 2. the blue byte, as getRGB & 0xff
+				for (int i = 0; i < n; i++){
+					if ((ints[i] & 0xff) != 0xff){
+						raster.words[i >>> 6] |= 1L << i;
+					}
+				}
+				return raster;
+			}
+			if (!jpg && type == BufferedImage.TYPE_INT_ARGB){
+				//Step 2. the ARGB value itself
+				for (int i = 0; i < n; i++){
+					if (ints[i] != 0){
+						raster.words[i >>> 6] |= 1L << i;
+					}
+				}
+				return raster;
+			}
+			if (!jpg && isOpaque(image)){
+				fill(raster);
+				return raster;
+			}
+		}
+
+		//anything else goes through the color model
+		for (int y = 0; y < height; y++){
+			for (int x = 0; x < width; x++){
+				int rgb = image.getRGB(x, y);
+				if (jpg ? (rgb & 0xff) != 0xff : rgb != 0){
+					raster.set(x, y);
+				}
+			}
+		}
+		return raster;
+	}
+
+	/**
+	 * typeOf
+	 *
+	 * @param name - a file name
+	 * @return ".jpg" for jpgs, otherwise ".png"
+	 */
+	public static String typeOf(String name){
+		return name.endsWith(".jpg") ? ".jpg" : ".png";
+	}
+
+	//opaque images have an alpha of 255, so getRGB is never 0
+	private static boolean isOpaque(BufferedImage image){
+		int type = image.getType();
+		return type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_BYTE_GRAY
+				|| type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_BGR;
+	}
+
+	//inks every pixel
+	private static void fill(BinaryRaster raster){
+		int n = raster.width * raster.height;
+		for (int i = 0; i < n; i++){
+			raster.words[i >>> 6] |= 1L << i;
+		}
+	}
+
+}
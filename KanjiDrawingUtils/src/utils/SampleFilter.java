@@ -0,0 +1,92 @@
+package utils;
+/**
+ * SampleFilter
+ *
+ * Decides from a sample's header alone whether it is worth decoding
+ *
+ * Every .pot sample starts with its size, its GBK tag code and its number of strokes. Readers
+ * check those against the filter first and jump over rejected samples by their size, so the
+ * strokes of a rejected sample are never read and nothing is allocated for it.
+ *
+ * Usage:
+ *
+ * SampleFilter filter = SampleFilter.and(SampleFilter.labels('啊', '阿'), SampleFilter.strokes(1, 10));
+ * for (StrokeKanji k : new PotReader(file, null, filter)){ ... }
+ *
+ */
+
+public abstract class SampleFilter {
+
+	/**
+	 * accept
+	 *
+	 * @param sampleSize - the size of the sample in bytes, or 0 if unknown
+	 * @param code - the sample's GBK tag code
+	 * @param numStrokes - the sample's number of strokes
+	 * @return true to decode the sample
+	 */
+	public abstract boolean accept(int sampleSize, int code, int numStrokes);
+
+	//keeps every sample
+	public static final SampleFilter ALL = new SampleFilter(){
+		public boolean accept(int sampleSize, int code, int numStrokes){
+			return true;
+		}
+	};
+
+	/**
+	 * labels
+	 *
+	 * @param labels - the kanjis to keep
+	 * @return a filter keeping only samples of those kanjis
+	 */
+	public static SampleFilter labels(Character... labels){
+		final boolean[] keep = new boolean[65536];
+		for (Character label : labels){
+			int code = GBKTable.toGBK(label);
+			if (code != 0){
+				keep[code] = true;
+			}
+		}
+		return new SampleFilter(){
+			public boolean accept(int sampleSize, int code, int numStrokes){
+				return keep[code & 0xffff];
+			}
+		};
+	}
+
+	/**
+	 * strokes
+	 *
+	 * @param min - the fewest strokes
+	 * @param max - the most strokes
+	 * @return a filter keeping samples with min <= strokes <= max
+	 */
+	public static SampleFilter strokes(final int min, final int max){
+		return new SampleFilter(){
+			public boolean accept(int sampleSize, int code, int numStrokes){
+				return numStrokes >= min && numStrokes <= max;
+			}
+		};
+	}
+
+	/**
+	 * and
+	 *
+	 * @param filters - the filters to combine
+	 * @return a filter keeping samples that every filter keeps
+	 */
+	public static SampleFilter and(final SampleFilter... filters){
+		return new SampleFilter(){
+			public boolean accept(int sampleSize, int code, int numStrokes){
+				for (SampleFilter filter : filters){
+					if (!filter.accept(sampleSize, code, numStrokes)){
+						return false;
+					}
+				}
+				return true;
+			}
+		};
+	}
+
+}
@@ -0,0 +1,281 @@
+package utils;
+/**
+ * StrokeRasterizer
+ *
+ * Draws a StrokeKanji's pen trajectory straight into a BinaryRaster
+ *
+ * This replaces the SVG -> Batik -> JPEG -> ImageIO round trip of decodeToJPG: no temporary
+ * files, no codecs, and no lossy compression. Like the SVG viewBox, the kanji's bounding box
+ * is scaled uniformly to fit the raster and centered.
+ *
+ * Usage:
+ *
+ * BinaryRaster pixels = new StrokeRasterizer(400, 400, 5).rasterize(kanji);
+ * ArrayList<PixelKanji> kanjis = new StrokeRasterizer().toPixelKanjis(new PotReader(file, null, SampleFilter.ALL, true));
+ *
+ */
+
+import java.util.ArrayList;
+
+import kanjiClasses.BinaryRaster;
+import kanjiClasses.PixelKanji;
+import kanjiClasses.PointStore;
+import kanjiClasses.StrokeKanji;
+
+public class StrokeRasterizer {
+
+	private int width;
+	private int height;
+	private int thickness;
+
+	/**
+	 * StrokeRasterizer constructor
+	 *
+	 * Matches the 400x400 images used by the pixel classifiers
+	 */
+	public StrokeRasterizer(){
+		this(400, 400, 5);
+	}
+
+	/**
+	 * StrokeRasterizer constructor
+	 *
+	 * @param width - raster width in pixels
+	 * @param height - raster height in pixels
+	 * @param thickness - pen width in pixels
+	 */
+	public StrokeRasterizer(int width, int height, int thickness){
+		this.width = width;
+		this.height = height;
+		this.thickness = Math.max(1, thickness);
+	}
+
+	/**
+	 * rasterize
+	 *
+	 * @param kanji - a kanji decoded with its fullStrokes
+	 * @return BinaryRaster - the drawn kanji, blank only if its trajectory has no points
+	 * @throws IllegalArgumentException if the kanji was decoded without its points, such as kanjis read
+	 * back from the FeatureCache - decode its source again with a PotReader instead
+	 */
+	public BinaryRaster rasterize(StrokeKanji kanji){
+		if (kanji.fullStrokes == null){
+			throw new IllegalArgumentException("kanji " + kanji.label + " has no points to rasterize");
+		}
+		BinaryRaster raster = new BinaryRaster(width, height);
+		rasterize(kanji.fullStrokes, kanji.fullStrokes.length, raster);
+		return raster;
+	}
+
+	/**
+	 * rasterize
+	 *
+	 * @summary Draws a .pot point list into a raster
+	 *
+	 * @param points - x, y pairs where (-1, 0) ends a stroke and (-1, -1) ends the kanji
+	 * @param length - the number of ints of points to use
+	 * @param raster - the raster to draw into (it is not cleared first)
+	 *
+	 * @pseudocode
+	 * 1. Find the bounding box of the trajectory
+	 * 2. Scale it to fit inside the pen margin and center it
+	 * 3. Draw a thick line between consecutive points of each stroke
+	 */
+	public void rasterize(int[] points, int length, BinaryRaster raster){
+
+		//Step 1. bounding box
+		int minX = Integer.MAX_VALUE;
+		int minY = Integer.MAX_VALUE;
+		int maxX = Integer.MIN_VALUE;
+		int maxY = Integer.MIN_VALUE;
+		for (int i = 0; i + 1 < length; i += 2){
+			if (points[i] != -1){
+				minX = Math.min(minX, points[i]);
+				maxX = Math.max(maxX, points[i]);
+				minY = Math.min(minY, points[i + 1]);
+				maxY = Math.max(maxY, points[i + 1]);
+			}
+		}
+		if (minX > maxX){
+			return;
+		}
+
+		//Step 2. uniform scale with room for the pen at the edges
+		double[] frame = frame(minX, minY, maxX, maxY, raster);
+		double scale = frame[0];
+		double offsetX = frame[1];
+		double offsetY = frame[2];
+
+		//Step 3. draw each stroke
+		boolean penDown = false;
+		int lastX = 0;
+		int lastY = 0;
+		for (int i = 0; i + 1 < length; i += 2){
+			if (points[i] == -1){
+				//a pen lift
+				penDown = false;
+				continue;
+			}
+			int x = (int) Math.round((points[i] - minX) * scale + offsetX);
+			int y = (int) Math.round((points[i + 1] - minY) * scale + offsetY);
+			if (penDown){
+				line(raster, lastX, lastY, x, y);
+			}else{
+				stamp(raster, x, y);
+			}
+			penDown = true;
+			lastX = x;
+			lastY = y;
+		}
+	}
+
+	/**
+	 * rasterize
+	 *
+	 * @summary Draws one sample of a PointStore, without copying its points out
+	 *
+	 * @param store - the points of a dataset
+	 * @param sample - the sample to draw
+	 * @return BinaryRaster - the drawn kanji, blank only if the sample has no points
+	 *
+	 * @pseudocode
+	 * 1. Find the bounding box of the sample's points
+	 * 2. Scale it to fit inside the pen margin and center it, as rasterize(int[], int, BinaryRaster)
+	 * 3. Draw a thick line between consecutive points of each stroke
+	 */
+	public BinaryRaster rasterize(PointStore store, int sample){
+		BinaryRaster raster = new BinaryRaster(width, height);
+		int firstStroke = store.firstStroke(sample);
+		int lastStroke = store.firstStroke(sample + 1);
+		int first = store.firstPoint(firstStroke);
+		int last = store.firstPoint(lastStroke);
+		if (first == last){
+			return raster;
+		}
+
+		//Step 1. bounding box
+		int minX = Integer.MAX_VALUE;
+		int minY = Integer.MAX_VALUE;
+		int maxX = Integer.MIN_VALUE;
+		int maxY = Integer.MIN_VALUE;
+		for (int p = first; p < last; p++){
+			minX = Math.min(minX, store.x(p));
+			maxX = Math.max(maxX, store.x(p));
+			minY = Math.min(minY, store.y(p));
+			maxY = Math.max(maxY, store.y(p));
+		}
+
+		//Step 2. uniform scale
+		double[] frame = frame(minX, minY, maxX, maxY, raster);
+
+		//Step 3. draw each stroke
+		for (int s = firstStroke; s < lastStroke; s++){
+			int lastX = 0;
+			int lastY = 0;
+			for (int p = store.firstPoint(s); p < store.firstPoint(s + 1); p++){
+				int x = (int) Math.round((store.x(p) - minX) * frame[0] + frame[1]);
+				int y = (int) Math.round((store.y(p) - minY) * frame[0] + frame[2]);
+				if (p > store.firstPoint(s)){
+					line(raster, lastX, lastY, x, y);
+				}else{
+					stamp(raster, x, y);
+				}
+				lastX = x;
+				lastY = y;
+			}
+		}
+		return raster;
+	}
+
+	/**
+	 * frame
+	 *
+	 * @return double[] - the scale, x offset and y offset that fit the bounding box inside the raster
+	 * with room for the pen at the edges, centered
+	 */
+	private double[] frame(int minX, int minY, int maxX, int maxY, BinaryRaster raster){
+		int margin = thickness;
+		double scale = Math.min((double) (raster.width - 1 - 2 * margin) / Math.max(1, maxX - minX),
+				(double) (raster.height - 1 - 2 * margin) / Math.max(1, maxY - minY));
+		return new double[]{scale, (raster.width - 1 - (maxX - minX) * scale) / 2, (raster.height - 1 - (maxY - minY) * scale) / 2};
+	}
+
+	/**
+	 * line
+	 *
+	 * Bresenham line stamped with the pen at every step
+	 */
+	private void line(BinaryRaster raster, int x0, int y0, int x1, int y1){
+		int dx = Math.abs(x1 - x0);
+		int dy = -Math.abs(y1 - y0);
+		int sx = x0 < x1 ? 1 : -1;
+		int sy = y0 < y1 ? 1 : -1;
+		int err = dx + dy;
+		while (true){
+			stamp(raster, x0, y0);
+			if (x0 == x1 && y0 == y1){
+				return;
+			}
+			int e2 = 2 * err;
+			if (e2 >= dy){
+				err += dy;
+				x0 += sx;
+			}
+			if (e2 <= dx){
+				err += dx;
+				y0 += sy;
+			}
+		}
+	}
+
+	/**
+	 * stamp
+	 *
+	 * Inks a round pen tip centered on (x, y)
+	 */
+	private void stamp(BinaryRaster raster, int x, int y){
+		int r = thickness / 2;
+		int r2 = r * r + r;
+		for (int dy = -r; dy <= r; dy++){
+			int py = y + dy;
+			if (py < 0 || py >= raster.height){
+				continue;
+			}
+			for (int dx = -r; dx <= r; dx++){
+				int px = x + dx;
+				if (px >= 0 && px < raster.width && dx * dx + dy * dy <= r2){
+					raster.set(px, py);
+				}
+			}
+		}
+	}
+
+	/**
+	 * toPixelKanjis
+	 *
+	 * @param kanjis - kanjis decoded with their fullStrokes, such as a PotReader that keeps points
+	 * @return ArrayList<PixelKanji> - one rasterized PixelKanji per kanji, with the same label
+	 */
+	public ArrayList<PixelKanji> toPixelKanjis(Iterable<StrokeKanji> kanjis){
+		ArrayList<PixelKanji> pixelKanjis = new ArrayList<PixelKanji>();
+		for (StrokeKanji k : kanjis){
+			pixelKanjis.add(new PixelKanji(k.label, rasterize(k)));
+		}
+		return pixelKanjis;
+	}
+
+	/**
+	 * toPixelKanjis
+	 *
+	 * @param store - the points of a dataset, such as PointStore.fromPot
+	 * @return ArrayList<PixelKanji> - one rasterized PixelKanji per sample, with the same label
+	 */
+	public ArrayList<PixelKanji> toPixelKanjis(PointStore store){
+		ArrayList<PixelKanji> pixelKanjis = new ArrayList<PixelKanji>(store.size());
+		for (int sample = 0; sample < store.size(); sample++){
+			pixelKanjis.add(new PixelKanji(store.label(sample), rasterize(store, sample)));
+		}
+		return pixelKanjis;
+	}
+
+}
@@ -0,0 +1,161 @@
+package utils;
+/**
+ * TransformCache
+ *
+ * Keeps a classifier's distance transforms of training kanjis or class templates, up to a fixed size
+ *
+ * A 400x400 transform takes 160 KB, so a training set cannot keep one on every kanji. Transforms
+ * are kept by kanji until their total size reaches the capacity; past it, transforms are still
+ * built but not kept. Nothing is evicted: a classifier compares every query with the same kanjis
+ * in the same order, and under least recently used eviction a set larger than the cache would
+ * lose every transform just before it is needed again, while keeping the first ones saves their
+ * work on every query. Queries do not belong here - their transform is used once and dropped.
+ *
+ * Each classifier owns its cache, so the kanjis and transforms it holds go with the classifier.
+ *
+ * Usage:
+ *
+ * TransformCache transforms = new TransformCache(TransformCache.DEFAULT_CAPACITY);
+ * DistanceTransform transform = transforms.get(kanji);
+ *
+ */
+
+import java.util.IdentityHashMap;
+
+import kanjiClasses.BinaryRaster;
+import kanjiClasses.DistanceTransform;
+import kanjiClasses.PixelKanji;
+
+public class TransformCache {
+
+	//256 MB holds about 1,600 400x400 transforms
+	public static final long DEFAULT_CAPACITY = 256L << 20;
+
+	private long capacity;
+	private long bytes = 0;
+	// by kanji, not by label or source - two samples of a class each have their own transform
+	private IdentityHashMap<PixelKanji, DistanceTransform> transforms = new IdentityHashMap<PixelKanji, DistanceTransform>();
+
+	private long hits = 0;
+	private long misses = 0;
+	private long uncached = 0;
+
+	/**
+	 * TransformCache constructor
+	 *
+	 * @param capacity - the most bytes of transforms to keep
+	 */
+	public TransformCache(long capacity){
+		this.capacity = capacity;
+	}
+
+	/**
+	 * get
+	 *
+	 * @summary Gets a kanji's distance transform, building it if it is not kept
+	 *
+	 * @param kanji - a training kanji or class template
+	 * @return DistanceTransform - the transform, or null if the kanji has no pixels
+	 *
+	 * @pseudocode
+	 * 1. Return the kept transform
+	 * 2. Otherwise build it from the kanji's raster, outside the lock
+	 * 3. Keep it if it fits in the capacity
+	 *
+	 * @note two threads asking for the same missing transform may both build it; only one is kept
+	 */
+	public DistanceTransform get(PixelKanji kanji){
+		//Step 1. kept
+		synchronized (this){
+			DistanceTransform transform = transforms.get(kanji);
+			if (transform != null){
+				hits++;
+				return transform;
+			}
+			misses++;
+		}
+
+		//Step 2. build
+		BinaryRaster pixels = kanji.toRaster();
+		if (pixels == null){
+			return null;
+		}
+		DistanceTransform transform = new DistanceTransform(pixels);
+
+		//Step 3. keep
+		synchronized (this){
+			DistanceTransform kept = transforms.get(kanji);
+			if (kept != null){
+				return kept;
+			}
+			if (bytes + size(transform) > capacity){
+				uncached++;
+				return transform;
+			}
+			transforms.put(kanji, transform);
+			bytes += size(transform);
+		}
+		return transform;
+	}
+
+	/**
+	 * remove
+	 *
+	 * @param kanji - a kanji whose pixels changed or that is no longer used
+	 */
+	public synchronized void remove(PixelKanji kanji){
+		DistanceTransform transform = transforms.remove(kanji);
+		if (transform != null){
+			bytes -= size(transform);
+		}
+	}
+
+	private static long size(DistanceTransform transform){
+		return transform.distances.length + RasterCache.OVERHEAD;
+	}
+
+	/**
+	 * setCapacity
+	 *
+	 * @param capacity - the most bytes of transforms to keep; lowering it only stops new ones being kept
+	 */
+	public synchronized void setCapacity(long capacity){
+		this.capacity = capacity;
+	}
+
+	/**
+	 * clear
+	 *
+	 * Forgets every transform and resets the counters
+	 */
+	public synchronized void clear(){
+		transforms.clear();
+		bytes = 0;
+		hits = 0;
+		misses = 0;
+		uncached = 0;
+	}
+
+	public synchronized int size(){
+		return transforms.size();
+	}
+
+	public synchronized long bytes(){
+		return bytes;
+	}
+
+	public synchronized long hits(){
+		return hits;
+	}
+
+	public synchronized long misses(){
+		return misses;
+	}
+
+	public synchronized String toString(){
+		long requests = hits + misses;
+		return "transform cache: " + transforms.size() + " transforms, " + (bytes >> 10) + " KB, hits: " + hits + " misses: " + misses
+				+ " not kept: " + uncached + " hit rate: " + (requests == 0 ? 0 : (double) hits / requests);
+	}
+
+}